@@ -0,0 +1,35 @@
+package org.concord.iot;
+
+/**
+ * A task that plays an LED effect on the shared animator instead of running a loop of its own.
+ *
+ * @author Charles Xie
+ */
+
+class AnimationTask extends Task {
+
+    private final LedAnimator animator;
+    private final LedAnimator.Effect effect;
+
+    AnimationTask(String name, IoTWorkbench workbench, LedAnimator animator, LedAnimator.Effect effect) {
+        super(name, workbench);
+        this.animator = animator;
+        this.effect = effect;
+    }
+
+    @Override
+    public void setStopped(boolean stopped) {
+        super.setStopped(stopped);
+        if (stopped) {
+            animator.stop(effect);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!isStopped()) {
+            animator.play(effect);
+        }
+    }
+
+}
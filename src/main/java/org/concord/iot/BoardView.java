@@ -8,10 +8,13 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Charles Xie
@@ -22,6 +25,10 @@ class BoardView extends JPanel {
     private IoTWorkbench workbench;
 
     private Image image;
+    private BufferedImage boardLayer; // the background, grid lines, board image, and button outlines, which only change with the size or the board
+    private volatile boolean boardLayerValid;
+    private BufferedImage graphLayer; // the frame, buttons, and axes of the graph, which only change with the size or the axes
+    private int graphLayerVersion = -1;
     private int xImageOffset;
     private int yImageOffset;
     private Font labelFont = new Font(null, Font.PLAIN, 10);
@@ -53,6 +60,7 @@ class BoardView extends JPanel {
     private GraphRenderer graphRenderer;
     private DataViewer dataViewer;
     private List<GraphListener> graphListeners;
+    private final RepaintScheduler repaintScheduler = new RepaintScheduler(this, 25);
 
     BoardView(IoTWorkbench workbench) {
 
@@ -185,6 +193,59 @@ class BoardView extends JPanel {
                 setupSensorHub();
                 break;
         }
+        boardLayerValid = false;
+    }
+
+    // the board image is loaded asynchronously, so the cached layer is redrawn as more of it arrives
+    @Override
+    public boolean imageUpdate(Image img, int infoflags, int x, int y, int w, int h) {
+        if (img == image) {
+            boardLayerValid = false;
+        }
+        return super.imageUpdate(img, infoflags, x, y, w, h);
+    }
+
+    private BufferedImage createLayer(int w, int h, int transparency) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        return gc != null ? gc.createCompatibleImage(w, h, transparency) : new BufferedImage(w, h, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static Graphics2D createLayerGraphics(BufferedImage layer) {
+        Graphics2D g = layer.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        return g;
+    }
+
+    private void drawBoardLayer(int w, int h) {
+        if (boardLayer == null || boardLayer.getWidth() != w || boardLayer.getHeight() != h) {
+            boardLayer = createLayer(w, h, Transparency.OPAQUE);
+        }
+        boardLayerValid = true; // set before drawing, so that an image update during drawing invalidates it again
+        Graphics2D g = createLayerGraphics(boardLayer);
+        g.setBackground(getBackground());
+        g.clearRect(0, 0, w, h);
+        drawGridLines(g, 20, 20, w, h);
+        g.drawImage(image, xImageOffset, yImageOffset, this);
+        g.translate(xImageOffset, yImageOffset);
+        g.setColor(Color.BLACK);
+        g.draw(buttonA);
+        g.draw(buttonB);
+        g.draw(buttonC);
+        g.dispose();
+    }
+
+    private void drawGraphLayer(int w, int h) {
+        if (graphLayer == null || graphLayer.getWidth() != w || graphLayer.getHeight() != h) {
+            graphLayer = createLayer(w, h, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g = createLayerGraphics(graphLayer);
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, w, h);
+        g.setComposite(AlphaComposite.SrcOver);
+        graphRenderer.drawFrame(g);
+        g.dispose();
+        graphLayerVersion = graphRenderer.getVersion();
     }
 
     @Override
@@ -193,18 +254,22 @@ class BoardView extends JPanel {
         int w = getWidth();
         int h = getHeight();
 
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+
         Graphics2D g2 = (Graphics2D) g;
-        g2.setBackground(getBackground());
-        g2.clearRect(0, 0, w, h);
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        drawGridLines(g2, 20, 20, w, h);
 
         int wi = image.getWidth(this);
         xImageOffset = (w - wi) / 2;
         yImageOffset = 50;
 
-        g2.drawImage(image, xImageOffset, yImageOffset, this);
+        if (!boardLayerValid || boardLayer == null || boardLayer.getWidth() != w || boardLayer.getHeight() != h) {
+            drawBoardLayer(w, h);
+        }
+        g2.drawImage(boardLayer, 0, 0, null);
 
         g2.translate(xImageOffset, yImageOffset);
 
@@ -217,10 +282,6 @@ class BoardView extends JPanel {
             ledLightSymbols[i].paintIcon(this, g, (int) (leds[i].x + a), (int) (leds[i].y + b));
         }
 
-        g2.setColor(Color.BLACK);
-        g2.draw(buttonA);
-        g2.draw(buttonB);
-        g2.draw(buttonC);
         if (buttonAPressed) {
             g2.setColor(buttonPressedColor);
             g2.fill(buttonA);
@@ -254,24 +315,16 @@ class BoardView extends JPanel {
 
         g2.translate(-xImageOffset, -yImageOffset);
 
-        if (label != null) {
-            drawString(g2, mouseMovedPoint, label);
-        }
-
         if (showGraph) {
-            graphRenderer.drawFrame(g2);
-            if (workbench.getTime() > graphRenderer.getXmax()) {
-                graphRenderer.doubleXmax();
+            adjustGraphAxes();
+            if (graphLayerVersion != graphRenderer.getVersion() || graphLayer == null || graphLayer.getWidth() != w || graphLayer.getHeight() != h) {
+                drawGraphLayer(w, h);
             }
+            g2.drawImage(graphLayer, 0, 0, null);
             switch (graphRenderer.getDataType()) {
                 case 0: // temperature (Celsius)
-                    if (workbench.getTemperature() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getTemperature() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getTemperatureDataStore(), "Temperature", false, Color.BLACK);
-                    List<SensorDataPoint>[] temperatureArrayDataStore = workbench.getTemperatureArrayDataStore();
+                    SensorDataStore[] temperatureArrayDataStore = workbench.getTemperatureArrayDataStore();
                     if (temperatureArrayDataStore != null && temperatureArrayDataStore.length > 0) {
                         Color[] colors = new Color[temperatureArrayDataStore.length];
                         Arrays.fill(colors, Color.RED);
@@ -283,65 +336,98 @@ class BoardView extends JPanel {
                     }
                     break;
                 case 1: // barometric pressure
-                    if (workbench.getBarometricPressure() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getBarometricPressure() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getBarometricPressureDataStore(), "Barometric Pressure", false, null);
                     break;
                 case 2: // relative humidity
-                    if (workbench.getRelativeHumidity() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getRelativeHumidity() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getRelativeHumidityDataStore(), "Relative Humidity", false, null);
                     break;
                 case 3: // visible and infrared light
-                    if (workbench.getVisibleLux() > graphRenderer.getYmax() || workbench.getInfraredLux() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getVisibleLux() < graphRenderer.getYmin() || workbench.getInfraredLux() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getVisibleLuxDataStore(), "Visible Light", false, Color.BLACK);
                     graphRenderer.drawData(g2, workbench.getInfraredLuxDataStore(), "Infrared Light", false, Color.RED);
                     break;
                 case 4: // time-of-flight distance
-                    if (workbench.getLidarDistance() > graphRenderer.getYmax() || workbench.getUltrasonicDistance() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getLidarDistance() < graphRenderer.getYmin() || workbench.getUltrasonicDistance() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getLidarDistanceDataStore(), "Distance (Lidar)", false, Color.BLACK);
                     graphRenderer.drawData(g2, workbench.getUltrasonicDistanceDataStore(), "Distance (Ultrasonic)", false, Color.MAGENTA);
                     break;
                 case 5: // acceleration
-                    if (workbench.getAx() > graphRenderer.getYmax() || workbench.getAy() > graphRenderer.getYmax() || workbench.getAz() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getAx() < graphRenderer.getYmin() || workbench.getAy() < graphRenderer.getYmin() || workbench.getAz() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getAxDataStore(), "Ax", false, Color.RED);
                     graphRenderer.drawData(g2, workbench.getAyDataStore(), "Ay", false, Color.GREEN);
                     graphRenderer.drawData(g2, workbench.getAzDataStore(), "Az", false, Color.BLUE);
                     break;
                 case 6: // orientation
-                    if (workbench.getPitch() > graphRenderer.getYmax() || workbench.getRoll() > graphRenderer.getYmax()) {
-                        graphRenderer.increaseYmax();
-                    } else if (workbench.getPitch() < graphRenderer.getYmin() || workbench.getRoll() < graphRenderer.getYmin()) {
-                        graphRenderer.decreaseYmin();
-                    }
                     graphRenderer.drawData(g2, workbench.getPitchDataStore(), "Pitch", false, Color.DARK_GRAY);
                     graphRenderer.drawData(g2, workbench.getRollDataStore(), "Roll", false, Color.MAGENTA);
                     break;
             }
+            graphRenderer.drawButtonInfo(g2);
+        }
+
+        if (label != null) { // drawn last so that the graph does not cover it
+            drawString(g2, mouseMovedPoint, label);
         }
 
         g2.dispose();
 
     }
 
+    // extend the axes to the latest readings before the frame is drawn, so that the frame and the curves agree
+    private void adjustGraphAxes() {
+        if (workbench.getTime() > graphRenderer.getXmax()) {
+            graphRenderer.doubleXmax();
+        }
+        switch (graphRenderer.getDataType()) {
+            case 0: // temperature (Celsius)
+                if (workbench.getTemperature() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getTemperature() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 1: // barometric pressure
+                if (workbench.getBarometricPressure() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getBarometricPressure() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 2: // relative humidity
+                if (workbench.getRelativeHumidity() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getRelativeHumidity() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 3: // visible and infrared light
+                if (workbench.getVisibleLux() > graphRenderer.getYmax() || workbench.getInfraredLux() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getVisibleLux() < graphRenderer.getYmin() || workbench.getInfraredLux() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 4: // time-of-flight distance
+                if (workbench.getLidarDistance() > graphRenderer.getYmax() || workbench.getUltrasonicDistance() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getLidarDistance() < graphRenderer.getYmin() || workbench.getUltrasonicDistance() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 5: // acceleration
+                if (workbench.getAx() > graphRenderer.getYmax() || workbench.getAy() > graphRenderer.getYmax() || workbench.getAz() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getAx() < graphRenderer.getYmin() || workbench.getAy() < graphRenderer.getYmin() || workbench.getAz() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+            case 6: // orientation
+                if (workbench.getPitch() > graphRenderer.getYmax() || workbench.getRoll() > graphRenderer.getYmax()) {
+                    graphRenderer.increaseYmax();
+                } else if (workbench.getPitch() < graphRenderer.getYmin() || workbench.getRoll() < graphRenderer.getYmin()) {
+                    graphRenderer.decreaseYmin();
+                }
+                break;
+        }
+    }
+
     private void drawGridLines(Graphics2D g, int dx, int dy, int w, int h) {
         g.setColor(Color.LIGHT_GRAY);
         int nx = Math.round((float) w / (float) dx);
@@ -356,7 +442,7 @@ class BoardView extends JPanel {
 
     public void setShowGraph(boolean showGraph) {
         this.showGraph = showGraph;
-        repaint();
+        requestRepaint();
     }
 
     public boolean getShowGraph() {
@@ -366,13 +452,17 @@ class BoardView extends JPanel {
     private void drawString(Graphics2D g, Point p, String s) {
         g.setFont(labelFont);
         FontMetrics fm = g.getFontMetrics();
-        int stringWidth = fm.stringWidth(s);
+        String[] lines = s.split("\n");
+        int stringWidth = 0;
+        for (String line : lines) { // the box fits the widest line
+            stringWidth = Math.max(stringWidth, fm.stringWidth(line));
+        }
         g.setStroke(thinStroke);
         int x = p.x;
         boolean nearRightBorder = x > getWidth() - 50;
         x += nearRightBorder ? -30 : 20;
         g.setColor(Color.DARK_GRAY);
-        g.fillRoundRect(x - 5, p.y - 14, stringWidth + 10, 20, 8, 8);
+        g.fillRoundRect(x - 5, p.y - 14, stringWidth + 10, 20 + (lines.length - 1) * fm.getHeight(), 8, 8);
         g.drawLine(nearRightBorder ? x + stringWidth + 5 : x - 5, p.y - 5, p.x, p.y);
         g.fillOval(p.x - 2, p.y - 2, 4, 4);
         g.setColor(Color.WHITE);
@@ -402,7 +492,7 @@ class BoardView extends JPanel {
         if (!found) {
             setLatchingSwitch(x2, y2);
         }
-        repaint();
+        requestRepaint();
     }
 
     private void setLatchingSwitch(int x, int y) {
@@ -419,7 +509,7 @@ class BoardView extends JPanel {
         int x = e.getX();
         int y = e.getY();
         setMomentarySwitch(x - xImageOffset, y - yImageOffset, true);
-        repaint();
+        requestRepaint();
     }
 
     private void onMouseReleased(MouseEvent e) {
@@ -454,7 +544,7 @@ class BoardView extends JPanel {
                 graphRenderer.next();
                 autofitGraph(graphRenderer.getDataType());
             }
-            repaint();
+            requestRepaint();
             e.consume();
             if (graphRenderer.windowContains(x, y)) {
                 return;
@@ -462,24 +552,17 @@ class BoardView extends JPanel {
         }
 
         setMomentarySwitch(x - xImageOffset, y - yImageOffset, false);
-        repaint();
+        requestRepaint();
 
     }
 
-    private double[] getMinMax(List<SensorDataPoint> data) {
-        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
-        synchronized (data) {
-            for (SensorDataPoint s : data) {
-                double v = s.getValue();
-                if (v > max) {
-                    max = v;
-                }
-                if (v < min) {
-                    min = v;
-                }
-            }
+    // the statistics of the visible part of the graph are maintained by the store, so fitting does not scan the data
+    private double[] getMinMax(SensorDataStore data) {
+        double[] stats = data.getStatistics(0, graphRenderer.getXmax());
+        if (stats[3] == 0) {
+            return new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
         }
-        return new double[]{min, max};
+        return new double[]{stats[0], stats[1]};
     }
 
     private void autofitGraph(byte type) {
@@ -490,7 +573,7 @@ class BoardView extends JPanel {
                 double[] minmax = getMinMax(workbench.getTemperatureDataStore());
                 min = minmax[0];
                 max = minmax[1];
-                List<SensorDataPoint>[] temperatureArrayDataStore = workbench.getTemperatureArrayDataStore();
+                SensorDataStore[] temperatureArrayDataStore = workbench.getTemperatureArrayDataStore();
                 if (temperatureArrayDataStore != null) {
                     for (int i = 0; i < temperatureArrayDataStore.length; i++) {
                         minmax = getMinMax(temperatureArrayDataStore[i]);
@@ -595,12 +678,12 @@ class BoardView extends JPanel {
     }
 
     private void onMouseEntered(MouseEvent e) {
-        repaint();
+        requestRepaint();
     }
 
     private void onMouseExited(MouseEvent e) {
         mouseMovedPoint.setLocation(-1, -1);
-        repaint();
+        requestRepaint();
     }
 
     private void onMouseMoved(MouseEvent e) {
@@ -614,7 +697,7 @@ class BoardView extends JPanel {
         if (showGraph) {
             if (graphRenderer.buttonContains(x, y)) {
                 setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-                repaint();
+                requestRepaint();
                 e.consume();
                 return;
             }
@@ -656,23 +739,100 @@ class BoardView extends JPanel {
             }
         }
 
+        if (label == null && showGraph && graphRenderer.windowContains(x, y)) {
+            label = getDataLabel(x, y);
+        }
+
         if (label != null) {
             setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         } else {
             setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         }
 
-        repaint();
+        requestRepaint();
+
+    }
 
+    // look for the data point under the mouse among all the curves in the graph
+    private String getDataLabel(int x, int y) {
+        Map<String, SensorDataStore> series = getGraphedDataStores(graphRenderer.getDataType());
+        String name = null;
+        double[] nearest = null;
+        for (Map.Entry<String, SensorDataStore> e : series.entrySet()) {
+            double[] data = graphRenderer.getData(e.getValue(), x, y);
+            if (data != null && (nearest == null || data[2] < nearest[2])) {
+                nearest = data;
+                name = e.getKey();
+            }
+        }
+        if (nearest == null) {
+            return null;
+        }
+        return name + "\nTime: " + decimalFormat.format(nearest[0]) + " s\nValue: " + decimalFormat.format(nearest[1]);
+    }
+
+    private Map<String, SensorDataStore> getGraphedDataStores(byte type) {
+        Map<String, SensorDataStore> map = new LinkedHashMap<>();
+        switch (type) {
+            case 0:
+                map.put("Temperature", workbench.getTemperatureDataStore());
+                SensorDataStore[] temperatureArrayDataStore = workbench.getTemperatureArrayDataStore();
+                if (temperatureArrayDataStore != null) {
+                    for (int i = 0; i < temperatureArrayDataStore.length; i++) {
+                        map.put("Temperature #" + i, temperatureArrayDataStore[i]);
+                    }
+                }
+                break;
+            case 1:
+                map.put("Barometric Pressure", workbench.getBarometricPressureDataStore());
+                break;
+            case 2:
+                map.put("Relative Humidity", workbench.getRelativeHumidityDataStore());
+                break;
+            case 3:
+                map.put("Visible Light", workbench.getVisibleLuxDataStore());
+                map.put("Infrared Light", workbench.getInfraredLuxDataStore());
+                break;
+            case 4:
+                map.put("Distance (Lidar)", workbench.getLidarDistanceDataStore());
+                map.put("Distance (Ultrasonic)", workbench.getUltrasonicDistanceDataStore());
+                break;
+            case 5:
+                map.put("Ax", workbench.getAxDataStore());
+                map.put("Ay", workbench.getAyDataStore());
+                map.put("Az", workbench.getAzDataStore());
+                break;
+            case 6:
+                map.put("Pitch", workbench.getPitchDataStore());
+                map.put("Roll", workbench.getRollDataStore());
+                break;
+        }
+        return map;
     }
 
     private void onMouseDragged(MouseEvent e) {
-        repaint();
+        requestRepaint();
     }
 
     private void onComponentResized(ComponentEvent e) {
+        boardLayerValid = false;
         graphRenderer.setFrame(50, 50, getWidth() - 100, getHeight() - 100);
-        repaint();
+        requestRepaint();
+    }
+
+    /**
+     * Requests a repaint that is coalesced with the others made within the same frame. This method can be called from any thread.
+     */
+    void requestRepaint() {
+        repaintScheduler.request();
+    }
+
+    void setFrameRate(int frameRate) {
+        repaintScheduler.setFrameRate(frameRate);
+    }
+
+    RepaintScheduler getRepaintScheduler() {
+        return repaintScheduler;
     }
 
     void addGraphListener(GraphListener l) {
@@ -702,23 +862,23 @@ class BoardView extends JPanel {
 
     public void setRedLedPressed(boolean on) {
         redLedSymbol.setPressed(on);
-        repaint();
+        requestRepaint();
     }
 
     public void setGreenLedPressed(boolean on) {
         greenLedSymbol.setPressed(on);
-        repaint();
+        requestRepaint();
     }
 
     public void setBlueLedPressed(boolean on) {
         blueLedSymbol.setPressed(on);
-        repaint();
+        requestRepaint();
     }
 
     public void setLedColor(int i, Color c) {
         ledLightSymbols[i].setColor(c);
         ledLightSymbols[i].setPressed(!c.equals(Color.BLACK));
-        repaint();
+        requestRepaint();
     }
 
     public void setColorForAllLeds(Color c) {
@@ -726,7 +886,7 @@ class BoardView extends JPanel {
             x.setColor(c);
             x.setPressed(!c.equals(Color.BLACK));
         }
-        repaint();
+        requestRepaint();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,304 @@
+package org.concord.iot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed run of (time, value) samples in the style of Facebook's Gorilla time-series store. Times are kept as
+ * microsecond ticks and encoded as deltas of deltas, which take a single bit for a regular sampling interval. Values are XORed with
+ * the previous value and only the meaningful bits of the result are kept, which takes a single bit for an unchanged reading and a few
+ * more for a slowly changing one. A chunk also keeps the summary statistics of its samples so that they can be used without decoding.
+ * <p>
+ * A chunk is built with an {@link Encoder} and read back sequentially with a {@link Decoder}.
+ *
+ * @author Charles Xie
+ */
+
+class CompressedChunk {
+
+    private final static double TICKS_PER_SECOND = 1.0e6;
+
+    private final long[] words;
+    private final int bitLength;
+    private final int count;
+    private final double firstTime, lastTime;
+    private final double min, max, sum;
+
+    private CompressedChunk(long[] words, int bitLength, int count, double firstTime, double lastTime, double min, double max, double sum) {
+        this.words = words;
+        this.bitLength = bitLength;
+        this.count = count;
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+    }
+
+    int size() {
+        return count;
+    }
+
+    double getFirstTime() {
+        return firstTime;
+    }
+
+    double getLastTime() {
+        return lastTime;
+    }
+
+    double getMin() {
+        return min;
+    }
+
+    double getMax() {
+        return max;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the number of bytes taken by the compressed samples
+     */
+    int getCompressedSize() {
+        return words.length * 8;
+    }
+
+    Decoder decoder() {
+        return new Decoder();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(bitLength);
+        out.writeDouble(firstTime);
+        out.writeDouble(lastTime);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(sum);
+        for (int i = 0, n = (bitLength + 63) >>> 6; i < n; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    static CompressedChunk readFrom(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        int bitLength = in.readInt();
+        double firstTime = in.readDouble();
+        double lastTime = in.readDouble();
+        double min = in.readDouble();
+        double max = in.readDouble();
+        double sum = in.readDouble();
+        if (count < 0 || bitLength < 0) {
+            throw new IOException("Corrupted chunk: " + count + " samples, " + bitLength + " bits");
+        }
+        long[] words = new long[(bitLength + 63) >>> 6];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new CompressedChunk(words, bitLength, count, firstTime, lastTime, min, max, sum);
+    }
+
+    /**
+     * Appends samples to a growing bit stream. The encoder can be reused after {@link #seal()}, so its buffer is allocated only once.
+     */
+    static class Encoder {
+
+        private long[] words = new long[256];
+        private int bitLength;
+        private int count;
+        private long previousTicks, previousDelta;
+        private long previousBits;
+        private int previousLeading = -1, previousTrailing;
+        private double firstTime, lastTime;
+        private double min, max, sum;
+
+        void add(double time, double value) {
+            long ticks = Math.round(time * TICKS_PER_SECOND);
+            long bits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                write(ticks, 64);
+                write(bits, 64);
+                firstTime = time;
+                min = max = value;
+                sum = 0;
+            } else {
+                long delta = ticks - previousTicks;
+                if (count == 1) {
+                    write(delta, 64);
+                } else {
+                    writeDeltaOfDelta(delta - previousDelta);
+                }
+                previousDelta = delta;
+                writeXor(bits ^ previousBits);
+                if (value < min) min = value;
+                if (value > max) max = value;
+            }
+            previousTicks = ticks;
+            previousBits = bits;
+            lastTime = time;
+            sum += value;
+            count++;
+        }
+
+        // the fields are two's complement, as the decoder reads them back
+        private void writeDeltaOfDelta(long d) {
+            if (d == 0) {
+                write(0, 1);
+            } else if (d >= -64 && d <= 63) {
+                write(0b10, 2);
+                write(d, 7);
+            } else if (d >= -2048 && d <= 2047) { // a couple of milliseconds of jitter
+                write(0b110, 3);
+                write(d, 12);
+            } else if (d >= -524288 && d <= 524287) { // half a second of jitter in microseconds
+                write(0b1110, 4);
+                write(d, 20);
+            } else {
+                write(0b1111, 4);
+                write(d, 64);
+            }
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                write(0, 1);
+                return;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) { // fits in the previous window
+                write(0b10, 2);
+                write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                write(0b11, 2);
+                write(leading, 5);
+                write(meaningful - 1, 6);
+                write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        // writes the lowest n bits of x, most significant first
+        private void write(long x, int n) {
+            if (bitLength + n > words.length * 64) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int offset = bitLength & 63;
+            int i = bitLength >>> 6;
+            if (n < 64) {
+                x &= (1L << n) - 1;
+            }
+            int free = 64 - offset;
+            if (n <= free) {
+                words[i] |= x << (free - n);
+            } else {
+                words[i] |= x >>> (n - free);
+                words[i + 1] |= x << (64 - (n - free));
+            }
+            bitLength += n;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * @return a chunk of the samples added since the last seal, after which the encoder starts over
+         */
+        CompressedChunk seal() {
+            long[] w = Arrays.copyOf(words, (bitLength + 63) >>> 6);
+            CompressedChunk c = new CompressedChunk(w, bitLength, count, firstTime, lastTime, min, max, sum);
+            Arrays.fill(words, 0, w.length, 0);
+            bitLength = 0;
+            count = 0;
+            previousLeading = -1;
+            return c;
+        }
+
+    }
+
+    /**
+     * Reads the samples of a chunk in order without allocating.
+     */
+    class Decoder {
+
+        private int position;
+        private int index;
+        private long ticks, delta;
+        private long bits;
+        private int leading, trailing;
+
+        /**
+         * @return true if another sample has been decoded, whose time and value are then available
+         */
+        boolean next() {
+            if (index >= count) {
+                return false;
+            }
+            if (index == 0) {
+                ticks = read(64);
+                bits = read(64);
+            } else {
+                if (index == 1) {
+                    delta = read(64);
+                } else {
+                    delta += readDeltaOfDelta();
+                }
+                ticks += delta;
+                if (read(1) != 0) {
+                    if (read(1) != 0) {
+                        leading = (int) read(5);
+                        int meaningful = (int) read(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    bits ^= read(64 - leading - trailing) << trailing;
+                }
+            }
+            index++;
+            return true;
+        }
+
+        double getTime() {
+            return index == 1 ? firstTime : ticks / TICKS_PER_SECOND;
+        }
+
+        double getValue() {
+            return Double.longBitsToDouble(bits);
+        }
+
+        private long readDeltaOfDelta() {
+            if (read(1) == 0) return 0;
+            if (read(1) == 0) return signed(read(7), 7);
+            if (read(1) == 0) return signed(read(12), 12);
+            if (read(1) == 0) return signed(read(20), 20);
+            return read(64);
+        }
+
+        private long signed(long x, int n) {
+            return (x << (64 - n)) >> (64 - n);
+        }
+
+        private long read(int n) {
+            int offset = position & 63;
+            int i = position >>> 6;
+            int available = 64 - offset;
+            long x;
+            if (n <= available) {
+                x = words[i] >>> (available - n);
+            } else {
+                x = (words[i] << (n - available)) | (words[i + 1] >>> (64 - (n - available)));
+            }
+            position += n;
+            return n == 64 ? x : x & ((1L << n) - 1);
+        }
+
+    }
+
+}
@@ -3,10 +3,15 @@ package org.concord.iot;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.List;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.prefs.Preferences;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
  * @author Charles Xie
@@ -43,77 +48,109 @@ class DataViewer {
         }
     }
 
-    private void showData(String name, String s1, List<SensorDataPoint> data1, String s2, List<SensorDataPoint> data2, String s3, List<SensorDataPoint> data3) {
-        int n = data1.size();
-        if (n < 1) {
-            JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(workbench.boardView), "No data has been collected.", "No data", JOptionPane.INFORMATION_MESSAGE);
-            return;
-        }
-        String[] header = new String[]{"Time", s1, s2, s3};
-        Object[][] column = new Object[n][4];
-        for (int i = 0; i < n; i++) {
-            SensorDataPoint d = data1.get(i);
-            column[i][0] = d.getTime();
-            column[i][1] = d.getValue();
-            column[i][2] = data2.get(i).getValue();
-            column[i][3] = data3.get(i).getValue();
+    private void showData(String name, String s1, SensorDataStore data1, String s2, SensorDataStore data2, String s3, SensorDataStore data3) {
+        showData(name, new String[]{"Time", s1, s2, s3}, data1, data2, data3);
+    }
+
+    private void showData(String name, String s1, SensorDataStore data1, String s2, SensorDataStore data2) {
+        if (isEmpty(data1)) { // the rows follow the samples of the first channel, so lead with the one that has data
+            showData(name, new String[]{"Time", s2, s1}, data2, data1);
+        } else {
+            showData(name, new String[]{"Time", s1, s2}, data1, data2);
         }
-        showDataWindow(name, column, header);
     }
 
-    private void showData(String name, String s1, List<SensorDataPoint> data1, String s2, List<SensorDataPoint> data2) {
-        int n1 = data1.size();
-        int n2 = data2.size();
-        if (n1 < 1 && n2 < 1) {
+    private void showData(String name, SensorDataStore data) {
+        showData(name, new String[]{"Time", name}, data);
+    }
+
+    private void showData(String name, String[] header, SensorDataStore... data) {
+        if (isEmpty(data[0])) {
             JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(workbench.boardView), "No data has been collected.", "No data", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
-        int n = Math.max(n1, n2);
-        String[] header = new String[]{"Time", s1, s2};
-        Object[][] column = new Object[n][3];
-        for (int i = 0; i < n; i++) {
-            if (!data1.isEmpty() && data2.isEmpty()) {
-                column[i][0] = data1.get(i).getTime();
-                column[i][1] = data1.get(i).getValue();
-                column[i][2] = "-";
-            } else if (!data2.isEmpty() && data1.isEmpty()) {
-                column[i][0] = data2.get(i).getTime();
-                column[i][1] = "-";
-                column[i][2] = data2.get(i).getValue();
-            } else {
-                column[i][0] = data1.get(i).getTime();
-                column[i][1] = data1.get(i).getValue();
-                column[i][2] = data2.get(i).getValue();
-            }
-        }
-        showDataWindow(name, column, header);
+        showDataWindow(name, new SensorDataTableModel(header, data));
     }
 
-    private void showData(String name, List<SensorDataPoint> data) {
-        int n = data.size();
-        if (n < 1) {
-            JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(workbench.boardView), "No data has been collected.", "No data", JOptionPane.INFORMATION_MESSAGE);
+    private static boolean isEmpty(SensorDataStore data) {
+        return data.getNextSequenceNumber() == data.getFirstSequenceNumber();
+    }
+
+    // stream the data to a file in the background, so that a long recording does not freeze the window
+    private void export(final JDialog owner, String title, JTable table, SensorDataTableModel model) {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        JFileChooser chooser = new JFileChooser(pref.get("export_directory", System.getProperty("user.home")));
+        FileNameExtensionFilter csvFilter = new FileNameExtensionFilter("CSV (*.csv)", SensorDataExporter.Format.CSV.getExtension());
+        FileNameExtensionFilter columnarFilter = new FileNameExtensionFilter("Columnar binary (*.sdcol)", SensorDataExporter.Format.COLUMNAR.getExtension());
+        chooser.addChoosableFileFilter(csvFilter);
+        chooser.addChoosableFileFilter(columnarFilter);
+        chooser.setFileFilter(csvFilter);
+        chooser.setSelectedFile(new File(title + ".csv"));
+        if (chooser.showSaveDialog(owner) != JFileChooser.APPROVE_OPTION) {
             return;
         }
-        String[] header = new String[]{"Time", name};
-        Object[][] column = new Object[n][2];
-        synchronized (data) {
-            for (int i = 0; i < n; i++) {
-                SensorDataPoint d = data.get(i);
-                column[i][0] = d.getTime();
-                column[i][1] = d.getValue();
-            }
+        File selected = chooser.getSelectedFile();
+        pref.put("export_directory", selected.getParent());
+        final SensorDataExporter.Format format = chooser.getFileFilter() == columnarFilter || selected.getName().endsWith("." + SensorDataExporter.Format.COLUMNAR.getExtension()) ? SensorDataExporter.Format.COLUMNAR : SensorDataExporter.Format.CSV;
+        final File file = selected.getName().endsWith("." + format.getExtension()) ? selected : new File(selected.getPath() + "." + format.getExtension());
+        if (file.exists() && JOptionPane.showConfirmDialog(owner, file.getName() + " exists. Do you want to replace it?", "Export", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
         }
-        showDataWindow(name, column, header);
+
+        double t0 = -Double.MAX_VALUE;
+        double t1 = Double.MAX_VALUE;
+        int[] rows = table.getSelectedRows();
+        if (rows.length > 0) {
+            double a = model.getTime(rows[0]);
+            double b = model.getTime(rows[rows.length - 1]);
+            if (!Double.isNaN(a)) t0 = a;
+            if (!Double.isNaN(b)) t1 = b;
+        }
+        final SensorDataExporter exporter = new SensorDataExporter(model.getChannelNames(), model.getStores(), t0, t1);
+        final ProgressMonitor monitor = new ProgressMonitor(owner, "Exporting to " + file.getName(), null, 0, 100);
+        final SwingWorker<Long, Void> worker = new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                exporter.setProgressListener((done, total) -> setProgress(total == 0 ? 100 : (int) (100 * done / total)));
+                return exporter.export(file, format);
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                try {
+                    JOptionPane.showMessageDialog(owner, get() + (format == SensorDataExporter.Format.CSV ? " rows" : " samples") + " have been exported to " + file.getName() + ".", "Export", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof InterruptedIOException)) {
+                        e.getCause().printStackTrace();
+                        JOptionPane.showMessageDialog(owner, "Failed to export: " + e.getCause().getMessage(), "Export", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                monitor.setProgress((Integer) e.getNewValue());
+            }
+            if (monitor.isCanceled()) {
+                exporter.cancel();
+            }
+        });
+        worker.execute();
     }
 
-    private void showDataWindow(String title, Object[][] column, String[] header) {
+    private void showDataWindow(final String title, final SensorDataTableModel model) {
         final JDialog dataWindow = new JDialog(JOptionPane.getFrameForComponent(workbench.boardView), title, true);
         dataWindow.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
-        final JTable table = new JTable(column, header);
-        table.setModel(new DefaultTableModel(column, header) {
-            public boolean isCellEditable(int row, int col) {
-                return false;
+        final JTable table = new JTable(model);
+        final Timer refreshTimer = new Timer(1000, e -> model.refresh()); // show the samples that arrive while the window is open
+        refreshTimer.start();
+        dataWindow.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
             }
         });
         dataWindow.getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
@@ -133,6 +170,14 @@ class DataViewer {
         });
         button.setToolTipText("Copy data to the system clipboard");
         p.add(button);
+        button = new JButton("Export...");
+        button.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                export(dataWindow, title, table, model);
+            }
+        });
+        button.setToolTipText("Export the data, or the time range of the selected rows, to a file");
+        p.add(button);
         button = new JButton("Close");
         button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
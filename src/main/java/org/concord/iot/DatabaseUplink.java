@@ -0,0 +1,132 @@
+package org.concord.iot;
+
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces sensor values bound for Firebase and sends them as one multi-path update per flush, instead of one
+ * setValue round-trip per value. Only the latest value of each key is kept between flushes; older ones are dropped.
+ *
+ * @author Charles Xie
+ */
+
+class DatabaseUplink {
+
+    private final DatabaseReference database;
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+    private int flushInterval; // milliseconds
+
+    private final AtomicLong valuesQueued = new AtomicLong();
+    private final AtomicLong valuesSuperseded = new AtomicLong();
+    private final AtomicLong valuesSent = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    DatabaseUplink(DatabaseReference database, int flushInterval) {
+        this.database = database;
+        executor = Executors.newSingleThreadScheduledExecutor();
+        setFlushInterval(flushInterval);
+    }
+
+    /**
+     * Queue a value for the given child key. A value still waiting under the same key is superseded.
+     */
+    void put(String key, Object value) {
+        valuesQueued.incrementAndGet();
+        if (pending.put(key, value) != null) {
+            valuesSuperseded.incrementAndGet();
+        }
+    }
+
+    synchronized void setFlushInterval(int flushInterval) {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive: " + flushInterval);
+        }
+        if (this.flushInterval == flushInterval) {
+            return;
+        }
+        this.flushInterval = flushInterval;
+        if (future != null) {
+            future.cancel(false);
+        }
+        future = executor.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    int getFlushInterval() {
+        return flushInterval;
+    }
+
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Object> batch = new HashMap<>();
+        for (Iterator<String> i = pending.keySet().iterator(); i.hasNext(); ) {
+            String key = i.next();
+            Object value = pending.remove(key);
+            if (value != null) {
+                batch.put(key, value);
+            }
+        }
+        if (batch.isEmpty() || database == null) {
+            return;
+        }
+        database.updateChildren(batch, null);
+        valuesSent.addAndGet(batch.size());
+        flushes.incrementAndGet();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        flush();
+    }
+
+    long getValuesQueued() {
+        return valuesQueued.get();
+    }
+
+    long getValuesSuperseded() {
+        return valuesSuperseded.get();
+    }
+
+    long getValuesSent() {
+        return valuesSent.get();
+    }
+
+    long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return the number of round-trips saved compared to sending every queued value with its own setValue call, which is zero
+     * without a database, as nothing is ever sent then
+     */
+    long getWritesSaved() {
+        if (database == null) {
+            return 0;
+        }
+        return valuesQueued.get() - flushes.get() - pending.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Uplink: %d values queued, %d superseded, %d sent in %d flushes, %d writes saved", getValuesQueued(), getValuesSuperseded(), getValuesSent(), getFlushes(), getWritesSaved());
+    }
+
+}
@@ -10,7 +10,6 @@ import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.Stroke;
 import java.text.DecimalFormat;
-import java.util.List;
 
 /**
  * @author Charles Xie
@@ -62,6 +61,9 @@ class GraphRenderer {
     private Rectangle clearButton;
     private Polygon[] arrowButtons;
     private Point mouseMovedPoint;
+    private int version; // incremented whenever the frame would be drawn differently, so that a cached image of it can be checked
+    private double[] columnFirst, columnMin, columnMax, columnLast;
+    private int[] polylineX, polylineY;
 
     GraphRenderer(int x, int y, int w, int h) {
         closeButton = new Rectangle(0, 0, 20, 20);
@@ -80,6 +82,7 @@ class GraphRenderer {
     void reset() {
         dataType = 0;
         yLabel = DATA_TYPES[0];
+        version++;
     }
 
     void setMouseMovedPoint(Point mouseMovedPoint) {
@@ -88,6 +91,7 @@ class GraphRenderer {
 
     void setLabelX(String xLabel) {
         this.xLabel = xLabel;
+        version++;
     }
 
     String getLabelX() {
@@ -96,6 +100,7 @@ class GraphRenderer {
 
     void setLabelY(String yLabel) {
         this.yLabel = yLabel;
+        version++;
     }
 
     String getLabelY() {
@@ -104,6 +109,7 @@ class GraphRenderer {
 
     void setXmax(double xmax) {
         this.xmax = xmax;
+        version++;
     }
 
     double getXmax() {
@@ -112,15 +118,18 @@ class GraphRenderer {
 
     void doubleXmax() {
         xmax *= 2;
+        version++;
     }
 
     void halveXmax() {
         xmax *= 0.5;
+        version++;
     }
 
     void setYmin(double ymin) {
         this.ymin = ymin;
         yIncrement = (ymax - ymin) * 0.1;
+        version++;
     }
 
     double getYmin() {
@@ -129,11 +138,13 @@ class GraphRenderer {
 
     void decreaseYmin() {
         ymin -= yIncrement;
+        version++;
     }
 
     void setYmax(double ymax) {
         this.ymax = ymax;
         yIncrement = (ymax - ymin) * 0.1;
+        version++;
     }
 
     double getYmax() {
@@ -142,10 +153,12 @@ class GraphRenderer {
 
     void increaseYmax() {
         ymax += yIncrement;
+        version++;
     }
 
     void decreaseYmax() {
         ymax -= yIncrement;
+        version++;
     }
 
     void setFrame(int x, int y, int w, int h) {
@@ -170,6 +183,7 @@ class GraphRenderer {
         yFitButton.setLocation(position, y);
         position -= size;
         clearButton.setLocation(position, y);
+        version++;
     }
 
     boolean windowContains(int rx, int ry) {
@@ -210,6 +224,7 @@ class GraphRenderer {
     void next() {
         dataType = (byte) ((dataType + 1) % DATA_TYPES.length);
         yLabel = DATA_TYPES[dataType];
+        version++;
     }
 
     void previous() {
@@ -217,11 +232,13 @@ class GraphRenderer {
         if (dataType < 0)
             dataType = (byte) (DATA_TYPES.length - 1);
         yLabel = DATA_TYPES[dataType];
+        version++;
     }
 
     void setDataType(byte dataType) {
         this.dataType = (byte) Math.min(DATA_TYPES.length - 1, dataType);
         yLabel = DATA_TYPES[this.dataType];
+        version++;
     }
 
     byte getDataType() {
@@ -244,12 +261,17 @@ class GraphRenderer {
                 xLabel = "Time";
                 break;
         }
+        version++;
     }
 
     byte getTimeUnit() {
         return timeUnit;
     }
 
+    int getVersion() {
+        return version;
+    }
+
     private void centerString(String s, Graphics2D g, int x, int y, Shape[] shapes) {
         int stringWidth = g.getFontMetrics().stringWidth(s);
         if (shapes == arrowButtons) {
@@ -454,13 +476,12 @@ class GraphRenderer {
         }
         centerString(yLabel, g, x + 70, y + 10, arrowButtons);
 
-        if (mouseMovedPoint != null) {
-            drawButtonInfo(g);
-        }
-
     }
 
-    private void drawButtonInfo(Graphics2D g) {
+    // the tooltip of the button under the mouse is drawn separately from the frame, which does not change when the mouse moves
+    void drawButtonInfo(Graphics2D g) {
+        if (mouseMovedPoint == null)
+            return;
         String s = null;
         Rectangle r = null;
         if (closeButton.contains(mouseMovedPoint)) {
@@ -502,63 +523,64 @@ class GraphRenderer {
         g.drawString(s, r.x + (r.width - stringWidth) / 2, r.y - 12);
     }
 
-    void drawData(Graphics2D g, List<SensorDataPoint> data, String label, boolean highlight, Color myColor) {
+    void drawData(Graphics2D g, SensorDataStore data, String label, boolean highlight, Color myColor) {
 
         g.setStroke(curveStroke);
         g.setColor(highlight ? Color.yellow : (myColor == null ? fgColor : myColor));
 
-        int n = data.size();
-        if (n > 0) {
-            int m = Math.max(1, (int) (n / w));
-            SensorDataPoint d = data.get(0);
-            double t1 = d.getTime();
-            double v1 = d.getValue();
-            double t2, v2;
-            int x1 = 0, y1 = 0, x2 = 0, y2 = 0;
-            double scaleX = w / xmax;
-            double scaleY = h / (ymax - ymin);
-            synchronized (data) {
-                for (int i = m; i <= n - m; i += m) {
-                    x1 = (int) (x + t1 * scaleX);
-                    y1 = (int) (y + h - (v1 - ymin) * scaleY);
-                    if (x1 > x + w)
-                        break;
-                    d = data.get(i);
-                    t2 = d.getTime();
-                    v2 = d.getValue();
-                    x2 = (int) (x + t2 * scaleX);
-                    y2 = (int) (y + h - (v2 - ymin) * scaleY);
-                    g.drawLine(x1, y1, x2, y2);
-                    t1 = t2;
-                    v1 = v2;
-                }
-            }
-            if (label != null) {
-                g.setFont(labelFont);
-                g.drawString(label, x2 + 5, y2);
+        // reduce the data to a min/max envelope of one column per pixel so that the cost of drawing does not grow with the recording
+        if (w < 1) return;
+        if (columnFirst == null || columnFirst.length < w) {
+            columnFirst = new double[w];
+            columnMin = new double[w];
+            columnMax = new double[w];
+            columnLast = new double[w];
+            polylineX = new int[4 * w];
+            polylineY = new int[4 * w];
+        }
+        if (data.envelope(0, xmax / w, w, columnFirst, columnMin, columnMax, columnLast) == 0) return;
+
+        double scaleY = h / (ymax - ymin);
+        int n = 0;
+        for (int c = 0; c < w; c++) {
+            if (Double.isNaN(columnFirst[c])) continue;
+            int xc = x + c;
+            polylineX[n] = xc;
+            polylineY[n++] = (int) (y + h - (columnFirst[c] - ymin) * scaleY);
+            if (columnMin[c] != columnMax[c]) {
+                polylineX[n] = xc;
+                polylineY[n++] = (int) (y + h - (columnMin[c] - ymin) * scaleY);
+                polylineX[n] = xc;
+                polylineY[n++] = (int) (y + h - (columnMax[c] - ymin) * scaleY);
             }
+            polylineX[n] = xc;
+            polylineY[n++] = (int) (y + h - (columnLast[c] - ymin) * scaleY);
+        }
+        g.drawPolyline(polylineX, polylineY, n);
+        if (label != null) {
+            g.setFont(labelFont);
+            g.drawString(label, polylineX[n - 1] + 5, polylineY[n - 1]);
         }
 
     }
 
-    double[] getData(List<SensorDataPoint> data, int rx, int ry) {
-        if (!data.isEmpty()) {
-            double t, v;
-            int dx = 0, dy = 0;
-            double scaleX = w / xmax;
-            double scaleY = h / (ymax - ymin);
-            synchronized (data) {
-                for (SensorDataPoint d : data) {
-                    t = d.getTime();
-                    v = d.getValue();
-                    dx = (int) (x + t * scaleX) - rx;
-                    dy = (int) (y + h - (v - ymin) * scaleY) - ry;
-                    if (dx * dx + dy * dy < 100)
-                        return new double[]{t, v};
-                }
-            }
+    /**
+     * Finds the sample nearest to the point within a radius of 10 pixels. Only the samples within that distance in time are tested.
+     *
+     * @return the time and value of the sample and its squared distance in pixels, or null if there is none
+     */
+    double[] getData(SensorDataStore data, int rx, int ry) {
+        double scaleX = w / xmax;
+        double scaleY = h / (ymax - ymin);
+        double t = (rx - x) / scaleX;
+        double v = ymin + (y + h - ry) / scaleY;
+        double[] sample = data.hitTest(t, v, scaleX, scaleY, 10);
+        if (sample == null) {
+            return null;
         }
-        return null;
+        double dx = (sample[0] - t) * scaleX;
+        double dy = (sample[1] - v) * scaleY;
+        return new double[]{sample[0], sample[1], dx * dx + dy * dy};
     }
 
 }
\ No newline at end of file
@@ -20,11 +20,13 @@ import org.concord.iot.listeners.ThreadPoolListener;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -68,10 +70,13 @@ public class IoTWorkbench {
     private MPU6050 mpu6050; // gyroscope and accelerometer
 
     private DatabaseReference database;
+    private DatabaseUplink uplink; // sensor values are sent in batches
 
     int sensorDataCollectionInterval = 1000; // milliseconds
+    private SensorScheduler sensorScheduler;
     private long timeZeroMillis;
-    private double currentTime;
+    private final Map<SensorDataStore, SensorDataLog> dataLogs = new LinkedHashMap<>();
+    private volatile double currentTime;
     private double temperature;
     private double barometricPressure;
     private double relativeHumidity;
@@ -81,8 +86,10 @@ public class IoTWorkbench {
     private float ultrasonicDistance;
     private int ax, ay, az;
     private double pitch, roll;
-    private double[] accelerations;
-    private double[] gyroAngularSpeeds;
+    private final double[] accelerations = new double[3];
+    private final double[] gyroAngularSpeeds = new double[3];
+    private MPU6050.FifoFrames mpu6050Frames; // not null when the MPU6050 streams through its FIFO buffer
+    private double mpu6050FifoStartTime;
     boolean allowTemperatureTransmission;
     boolean allowBarometricPressureTransmission;
     boolean allowRelativeHumidityTransmission;
@@ -93,24 +100,28 @@ public class IoTWorkbench {
 
     User user;
     TaskFactory taskFactory;
+    LedAnimator ledAnimator;
     BoardView boardView;
     WorkbenchGui gui;
     private ThreadPoolExecutor threadPool;
     private List<ThreadPoolListener> threadPoolListeners;
 
-    private List<SensorDataPoint> temperatureDataStore;
-    private List<SensorDataPoint>[] temperatureArrayDataStore;
-    private List<SensorDataPoint> barometricPressureDataStore;
-    private List<SensorDataPoint> relativeHumidityDataStore;
-    private List<SensorDataPoint> visibleLuxDataStore;
-    private List<SensorDataPoint> infraredLuxDataStore;
-    private List<SensorDataPoint> lidarDistanceDataStore;
-    private List<SensorDataPoint> ultrasonicDistanceDataStore;
-    private List<SensorDataPoint> axDataStore;
-    private List<SensorDataPoint> ayDataStore;
-    private List<SensorDataPoint> azDataStore;
-    private List<SensorDataPoint> pitchDataStore;
-    private List<SensorDataPoint> rollDataStore;
+    private SensorDataStore temperatureDataStore;
+    private SensorDataStore[] temperatureArrayDataStore;
+    private SensorDataStore barometricPressureDataStore;
+    private SensorDataStore relativeHumidityDataStore;
+    private SensorDataStore visibleLuxDataStore;
+    private SensorDataStore infraredLuxDataStore;
+    private SensorDataStore lidarDistanceDataStore;
+    private SensorDataStore ultrasonicDistanceDataStore;
+    private SensorDataStore axDataStore;
+    private SensorDataStore ayDataStore;
+    private SensorDataStore azDataStore;
+    private SensorDataStore pitchDataStore;
+    private SensorDataStore rollDataStore;
+    private SensorDataStore gyroXDataStore;
+    private SensorDataStore gyroYDataStore;
+    private SensorDataStore gyroZDataStore;
 
     public IoTWorkbench() {
         init();
@@ -124,6 +135,7 @@ public class IoTWorkbench {
         threadPoolListeners = new ArrayList<>();
 
         synchronizeWithCloud();
+        uplink = new DatabaseUplink(database, Preferences.userNodeForPackage(IoTWorkbench.class).getInt("uplink_flush_interval", 1000));
 
         Gpio.wiringPiSetup(); // initialize the wiringPi library, this is needed for PWM
         gpio = GpioFactory.getInstance();
@@ -190,12 +202,14 @@ public class IoTWorkbench {
                 }
                 try { // visible and infrared light
                     tsl2561 = new TSL2561();
+                    tsl2561.setAutoGain(true);
                 } catch (Exception e) {
                     e.printStackTrace();
                     tsl2561 = null;
                 }
                 try { // distance
                     vl53l0x = new VL53L0X();
+                    vl53l0x.startContinuous(0);
                 } catch (Exception e) {
                     e.printStackTrace();
                     vl53l0x = null;
@@ -219,6 +233,7 @@ public class IoTWorkbench {
                     mpu6050 = null;
                 }
                 hcsr04 = new HCSR04();
+                hcsr04.start(100);
                 break;
         }
 
@@ -231,21 +246,25 @@ public class IoTWorkbench {
 
         setupButtons();
 
-        temperatureDataStore = Collections.synchronizedList(new ArrayList<>());
-        barometricPressureDataStore = Collections.synchronizedList(new ArrayList<>());
-        relativeHumidityDataStore = Collections.synchronizedList(new ArrayList<>());
-        visibleLuxDataStore = Collections.synchronizedList(new ArrayList<>());
-        infraredLuxDataStore = Collections.synchronizedList(new ArrayList<>());
-        lidarDistanceDataStore = Collections.synchronizedList(new ArrayList<>());
-        ultrasonicDistanceDataStore = Collections.synchronizedList(new ArrayList<>());
-        axDataStore = Collections.synchronizedList(new ArrayList<>());
-        ayDataStore = Collections.synchronizedList(new ArrayList<>());
-        azDataStore = Collections.synchronizedList(new ArrayList<>());
-        pitchDataStore = Collections.synchronizedList(new ArrayList<>());
-        rollDataStore = Collections.synchronizedList(new ArrayList<>());
+        temperatureDataStore = createDataStore("temperature");
+        barometricPressureDataStore = createDataStore("barometric_pressure");
+        relativeHumidityDataStore = createDataStore("relative_humidity");
+        visibleLuxDataStore = createDataStore("visible_lux");
+        infraredLuxDataStore = createDataStore("infrared_lux");
+        lidarDistanceDataStore = createDataStore("lidar_distance");
+        ultrasonicDistanceDataStore = createDataStore("ultrasonic_distance");
+        axDataStore = createDataStore("ax");
+        ayDataStore = createDataStore("ay");
+        azDataStore = createDataStore("az");
+        pitchDataStore = createDataStore("pitch");
+        rollDataStore = createDataStore("roll");
+        gyroXDataStore = createDataStore("gyro_x");
+        gyroYDataStore = createDataStore("gyro_y");
+        gyroZDataStore = createDataStore("gyro_z");
 
         startSensorDataCollection();
 
+        ledAnimator = new LedAnimator(this, pref.getInt("led_frame_rate", 100));
         taskFactory = new TaskFactory(this);
 
     }
@@ -261,6 +280,62 @@ public class IoTWorkbench {
         }
     }
 
+    // the capacity of each channel can be set separately, e.g. "temperature_data_store_capacity"
+    private SensorDataStore createDataStore(String name) {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        int capacity = pref.getInt(name + "_data_store_capacity", SensorDataStore.DEFAULT_CAPACITY);
+        SensorDataStore store = new SensorDataStore(name, capacity, pref.getInt(name + "_archive_capacity", 9 * capacity)); // compressed, the archive takes a fraction of the memory of the ring
+        openDataLog(store);
+        return store;
+    }
+
+    // the samples of every data store are also appended to a log on disk, so the history survives restarts and clearing the graphs
+    private void openDataLog(SensorDataStore store) {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        if (!pref.getBoolean("data_log", true)) {
+            return;
+        }
+        File directory = new File(pref.get("data_log_directory", System.getProperty("user.home") + File.separator + ".iot-workbench" + File.separator + "data"), store.getName());
+        try {
+            SensorDataLog log = new SensorDataLog(directory, pref.getInt("data_log_segment_records", 65536), pref.getLong("data_log_segment_duration", 3600000L), pref.getInt("data_log_max_segments", 168));
+            dataLogs.put(store, log);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // load the latest logged samples back into the data stores, moving time zero back to the earliest of them, and then start logging
+    private void restoreDataLogs() {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        if (pref.getBoolean("data_log_restore", false)) {
+            for (Map.Entry<SensorDataStore, SensorDataLog> e : dataLogs.entrySet()) {
+                try {
+                    double t = e.getValue().getEarliestTime((long) e.getKey().getCapacity() + e.getKey().getArchiveCapacity());
+                    if (t * 1000 < timeZeroMillis) {
+                        timeZeroMillis = (long) Math.floor(t * 1000);
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+        for (Map.Entry<SensorDataStore, SensorDataLog> e : dataLogs.entrySet()) {
+            restoreDataLog(e.getKey(), e.getValue(), pref.getBoolean("data_log_restore", false));
+        }
+    }
+
+    private void restoreDataLog(SensorDataStore store, SensorDataLog log, boolean restore) {
+        log.setTimeOrigin(timeZeroMillis / 1000.0);
+        if (restore) {
+            try {
+                log.restore(store);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        store.setLog(log);
+    }
+
     void clearDataStores() {
         temperatureDataStore.clear();
         barometricPressureDataStore.clear();
@@ -274,12 +349,20 @@ public class IoTWorkbench {
         azDataStore.clear();
         pitchDataStore.clear();
         rollDataStore.clear();
+        gyroXDataStore.clear();
+        gyroYDataStore.clear();
+        gyroZDataStore.clear();
         if (temperatureArrayDataStore != null) {
-            for (List<SensorDataPoint> s : temperatureArrayDataStore) {
+            for (SensorDataStore s : temperatureArrayDataStore) {
                 s.clear();
             }
         }
-        timeZeroMillis = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        mpu6050FifoStartTime -= (now - timeZeroMillis) / 1000.0; // FIFO frames are timestamped from the moment streaming started
+        timeZeroMillis = now;
+        for (SensorDataLog log : dataLogs.values()) {
+            log.setTimeOrigin(now / 1000.0);
+        }
     }
 
     void submitTask(Runnable task) {
@@ -571,126 +654,217 @@ public class IoTWorkbench {
         return currentTime;
     }
 
+    private double updateTime() {
+        currentTime = (double) (System.currentTimeMillis() - timeZeroMillis) / 1000.0;
+        return currentTime;
+    }
+
+    // each sensor is sampled on its own schedule, whose interval can be set separately, e.g. "mpu6050_sampling_interval" (zero follows the default interval)
+    private void addSensorChannel(String name, Object device, SensorScheduler.Sampler sampler) {
+        addSensorChannel(name, device, 0, sampler);
+    }
+
+    private void addSensorChannel(String name, Object device, int defaultInterval, SensorScheduler.Sampler sampler) {
+        if (device != null) {
+            final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+            sensorScheduler.addChannel(name, pref.getInt(name + "_sampling_interval", defaultInterval), sampler);
+        }
+    }
+
+    // in FIFO mode, the MPU6050 samples at its own rate (1 kHz by default) and the buffer is drained often enough not to overflow
+    private void startMpu6050Fifo() {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        if (mpu6050 == null || !pref.getBoolean("mpu6050_fifo", false)) {
+            return;
+        }
+        try {
+            mpu6050.startFifo(pref.getInt("mpu6050_smplrt_div", MPU6050.DEFAULT_SMPLRT_DIV));
+            mpu6050FifoStartTime = updateTime();
+            mpu6050Frames = new MPU6050.FifoFrames();
+        } catch (Exception e) {
+            e.printStackTrace();
+            mpu6050Frames = null;
+        }
+    }
+
     private void startSensorDataCollection() {
         timeZeroMillis = System.currentTimeMillis();
-        threadPool.execute(() -> {
-            while (true) {
-                try {
-                    currentTime = (double) (System.currentTimeMillis() - timeZeroMillis) / 1000.0;
-                    if (bmp280 != null) {
-                        double[] results = bmp280.sampleDeviceReads();
-                        temperature = results[BMP280.TEMP_VAL_C];
-                        barometricPressure = results[BMP280.PRES_VAL];
-                        System.out.printf("BMP280: Time : %.2f s %n", currentTime);
-                        System.out.printf("BMP280: Temperature in Celsius : %.2f C %n", temperature);
-                        System.out.printf("BMP280: Pressure : %.2f hPa %n", barometricPressure);
-                        temperatureDataStore.add(new SensorDataPoint(currentTime, temperature));
-                        barometricPressureDataStore.add(new SensorDataPoint(currentTime, barometricPressure));
-                        updateDisplay();
-                        if (allowTemperatureTransmission) {
-                            database.child("temperature").setValue(temperature, null);
-                        }
-                        if (allowBarometricPressureTransmission) {
-                            database.child("barometricPressure").setValue(barometricPressure, null);
-                        }
-                    }
-                    if (bme280 != null) {
-                        bme280.read();
-                        bme280.printf();
-                        temperature = bme280.getTemperature();
-                        barometricPressure = bme280.getPressure();
-                        relativeHumidity = bme280.getRelativeHumidity();
-                        relativeHumidityDataStore.add(new SensorDataPoint(currentTime, relativeHumidity));
-                        temperatureDataStore.add(new SensorDataPoint(currentTime, temperature));
-                        barometricPressureDataStore.add(new SensorDataPoint(currentTime, barometricPressure));
-                        if (allowRelativeHumidityTransmission) {
-                            database.child("relativeHumidity").setValue(relativeHumidity, null);
-                        }
-                        if (allowTemperatureTransmission) {
-                            database.child("temperature").setValue(temperature, null);
-                        }
-                        if (allowBarometricPressureTransmission) {
-                            database.child("barometricPressure").setValue(barometricPressure, null);
-                        }
-                    }
-                    if (tsl2561 != null) {
-                        tsl2561.read();
-                        tsl2561.printf();
-                        visibleLux = tsl2561.getVisibleLux();
-                        infraredLux = tsl2561.getInfraredLux();
-                        visibleLuxDataStore.add(new SensorDataPoint(currentTime, visibleLux));
-                        infraredLuxDataStore.add(new SensorDataPoint(currentTime, infraredLux));
-                        if (allowVisibleLuxTransmission) {
-                            database.child("visibleLux").setValue(visibleLux, null);
-                        }
-                        if (allowInfraredLuxTransmission) {
-                            database.child("infraredLux").setValue(infraredLux, null);
-                        }
-                    }
-                    if (vl53l0x != null) {
-                        lidarDistance = vl53l0x.range();
-                        System.out.printf("VL53L0X: Distance : %d mm %n", lidarDistance);
-                        lidarDistanceDataStore.add(new SensorDataPoint(currentTime, lidarDistance));
-                        if (allowDistanceTransmission) {
-                            database.child("distance").setValue(lidarDistance, null);
-                        }
-                    }
-                    if (vcnl4010 != null) {
-                        vcnl4010.read();
-                        vcnl4010.printf();
-                    }
-                    if (lis3dh != null) {
-                        lis3dh.read();
-                        lis3dh.printf();
-                        ax = lis3dh.getAx();
-                        ay = lis3dh.getAy();
-                        az = lis3dh.getAz();
-                        pitch = lis3dh.getPitch();
-                        roll = lis3dh.getRoll();
-                        axDataStore.add(new SensorDataPoint(currentTime, ax));
-                        ayDataStore.add(new SensorDataPoint(currentTime, ay));
-                        azDataStore.add(new SensorDataPoint(currentTime, az));
-                        pitchDataStore.add(new SensorDataPoint(currentTime, pitch));
-                        rollDataStore.add(new SensorDataPoint(currentTime, roll));
-                    }
-                    if (mpu6050 != null) {
-                        mpu6050.updateValues();
-                        accelerations = mpu6050.getAccelAccelerations();
-                        gyroAngularSpeeds = mpu6050.getGyroAngularSpeeds();
-                        System.out.printf("MPU6050: Accelerations : %.2f, %.2f, %.2f %n", accelerations[0], accelerations[1], accelerations[2]);
-                        System.out.printf("MPU6050: Gyro Angular Speeds : %.2f, %.2f, %.2f %n", gyroAngularSpeeds[0], gyroAngularSpeeds[1], gyroAngularSpeeds[2]);
-                    }
-                    if (hcsr04 != null) {
-                        float x = hcsr04.getDistance();
-                        if (!Float.isNaN(x)) {
-                            ultrasonicDistance = x;
-                            System.out.printf("HC-SR04: Distance : %.3f mm %n", ultrasonicDistance);
-                            ultrasonicDistanceDataStore.add(new SensorDataPoint(currentTime, ultrasonicDistance));
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                if (boardView != null) {
-                    boardView.repaint();
-                }
-                try {
-                    Thread.sleep(sensorDataCollectionInterval);
-                } catch (InterruptedException e) {
-                }
-            }
-        });
+        restoreDataLogs();
+        sensorScheduler = new SensorScheduler(sensorDataCollectionInterval);
+        addSensorChannel("bmp280", bmp280, this::sampleBmp280);
+        addSensorChannel("bme280", bme280, this::sampleBme280);
+        addSensorChannel("tsl2561", tsl2561, this::sampleTsl2561);
+        addSensorChannel("vl53l0x", vl53l0x, this::sampleVl53l0x);
+        addSensorChannel("vcnl4010", vcnl4010, this::sampleVcnl4010);
+        addSensorChannel("lis3dh", lis3dh, this::sampleLis3dh);
+        startMpu6050Fifo();
+        if (mpu6050Frames != null) {
+            addSensorChannel("mpu6050", mpu6050, 20, this::drainMpu6050Fifo);
+        } else {
+            addSensorChannel("mpu6050", mpu6050, this::sampleMpu6050);
+        }
+        addSensorChannel("hcsr04", hcsr04, this::sampleHcsr04);
+        sensorScheduler.start();
         startOneWireTemperatureSensorDataCollection();
     }
 
+    private void sampleBmp280() throws Exception {
+        double t = updateTime();
+        double[] results = bmp280.sampleDeviceReads();
+        temperature = results[BMP280.TEMP_VAL_C];
+        barometricPressure = results[BMP280.PRES_VAL];
+        System.out.printf("BMP280: Time : %.2f s %n", t);
+        System.out.printf("BMP280: Temperature in Celsius : %.2f C %n", temperature);
+        System.out.printf("BMP280: Pressure : %.2f hPa %n", barometricPressure);
+        temperatureDataStore.add(t, temperature);
+        barometricPressureDataStore.add(t, barometricPressure);
+        updateDisplay();
+        if (allowTemperatureTransmission) {
+            uplink.put("temperature", temperature);
+        }
+        if (allowBarometricPressureTransmission) {
+            uplink.put("barometricPressure", barometricPressure);
+        }
+        repaintBoardView();
+    }
+
+    private void sampleBme280() throws IOException {
+        double t = updateTime();
+        bme280.read();
+        bme280.printf();
+        temperature = bme280.getTemperature();
+        barometricPressure = bme280.getPressure();
+        relativeHumidity = bme280.getRelativeHumidity();
+        relativeHumidityDataStore.add(t, relativeHumidity);
+        temperatureDataStore.add(t, temperature);
+        barometricPressureDataStore.add(t, barometricPressure);
+        if (allowRelativeHumidityTransmission) {
+            uplink.put("relativeHumidity", relativeHumidity);
+        }
+        if (allowTemperatureTransmission) {
+            uplink.put("temperature", temperature);
+        }
+        if (allowBarometricPressureTransmission) {
+            uplink.put("barometricPressure", barometricPressure);
+        }
+        repaintBoardView();
+    }
+
+    private void sampleTsl2561() throws IOException {
+        double t = updateTime();
+        if (!tsl2561.read()) {
+            return; // no new conversion yet
+        }
+        tsl2561.printf();
+        visibleLux = tsl2561.getVisibleLux();
+        infraredLux = tsl2561.getInfraredLux();
+        visibleLuxDataStore.add(t, visibleLux);
+        infraredLuxDataStore.add(t, infraredLux);
+        if (allowVisibleLuxTransmission) {
+            uplink.put("visibleLux", visibleLux);
+        }
+        if (allowInfraredLuxTransmission) {
+            uplink.put("infraredLux", infraredLux);
+        }
+        repaintBoardView();
+    }
+
+    private void sampleVl53l0x() throws IOException {
+        double t = updateTime();
+        vl53l0x.poll();
+        if (vl53l0x.latestRange() < 0) {
+            return; // no measurement yet
+        }
+        lidarDistance = vl53l0x.latestRange();
+        System.out.printf("VL53L0X: Distance : %d mm %n", lidarDistance);
+        lidarDistanceDataStore.add(t, lidarDistance);
+        if (allowDistanceTransmission) {
+            uplink.put("distance", lidarDistance);
+        }
+        repaintBoardView();
+    }
+
+    private void sampleVcnl4010() throws IOException {
+        vcnl4010.read();
+        vcnl4010.printf();
+    }
+
+    private void sampleLis3dh() throws IOException {
+        double t = updateTime();
+        lis3dh.read();
+        lis3dh.printf();
+        ax = lis3dh.getAx();
+        ay = lis3dh.getAy();
+        az = lis3dh.getAz();
+        pitch = lis3dh.getPitch();
+        roll = lis3dh.getRoll();
+        axDataStore.add(t, ax);
+        ayDataStore.add(t, ay);
+        azDataStore.add(t, az);
+        pitchDataStore.add(t, pitch);
+        rollDataStore.add(t, roll);
+        repaintBoardView();
+    }
+
+    private void sampleMpu6050() throws Exception {
+        mpu6050.updateValues();
+        mpu6050.getAccelAccelerations(accelerations);
+        mpu6050.getGyroAngularSpeeds(gyroAngularSpeeds);
+        System.out.printf("MPU6050: Accelerations : %.2f, %.2f, %.2f %n", accelerations[0], accelerations[1], accelerations[2]);
+        System.out.printf("MPU6050: Gyro Angular Speeds : %.2f, %.2f, %.2f %n", gyroAngularSpeeds[0], gyroAngularSpeeds[1], gyroAngularSpeeds[2]);
+    }
+
+    private void drainMpu6050Fifo() throws Exception {
+        int n = mpu6050.drainFifo(mpu6050Frames);
+        if (n > 0) {
+            double[] t = mpu6050Frames.time;
+            for (int i = 0; i < n; i++) {
+                t[i] += mpu6050FifoStartTime;
+            }
+            if (lis3dh == null) { // the acceleration channels are filled by the LIS3DH when it is present
+                axDataStore.add(t, mpu6050Frames.accelX, n);
+                ayDataStore.add(t, mpu6050Frames.accelY, n);
+                azDataStore.add(t, mpu6050Frames.accelZ, n);
+            }
+            gyroXDataStore.add(t, mpu6050Frames.gyroX, n);
+            gyroYDataStore.add(t, mpu6050Frames.gyroY, n);
+            gyroZDataStore.add(t, mpu6050Frames.gyroZ, n);
+            mpu6050.getAccelAccelerations(accelerations);
+            mpu6050.getGyroAngularSpeeds(gyroAngularSpeeds);
+            updateTime();
+            repaintBoardView();
+        }
+    }
+
+    private void sampleHcsr04() {
+        double t = updateTime();
+        float x = hcsr04.getMedianDistance();
+        if (!Float.isNaN(x)) {
+            ultrasonicDistance = x;
+            System.out.printf("HC-SR04: Distance : %.3f mm %n", ultrasonicDistance);
+            ultrasonicDistanceDataStore.add(t, ultrasonicDistance);
+            repaintBoardView();
+        }
+    }
+
+    private void repaintBoardView() {
+        if (boardView != null) {
+            boardView.requestRepaint();
+        }
+    }
+
     // one-wire temperature sensors are much slower, so handle them in a separate thread
     private void startOneWireTemperatureSensorDataCollection() {
         if (oneWireDevices == null || oneWireDevices.isEmpty()) {
             return;
         }
-        temperatureArrayDataStore = new List[oneWireDevices.size()];
+        temperatureArrayDataStore = new SensorDataStore[oneWireDevices.size()];
         for (int i = 0; i < temperatureArrayDataStore.length; i++) {
-            temperatureArrayDataStore[i] = Collections.synchronizedList(new ArrayList<>());
+            temperatureArrayDataStore[i] = createDataStore("temperature_" + i);
+            SensorDataLog log = dataLogs.get(temperatureArrayDataStore[i]);
+            if (log != null) {
+                restoreDataLog(temperatureArrayDataStore[i], log, Preferences.userNodeForPackage(IoTWorkbench.class).getBoolean("data_log_restore", false));
+            }
         }
         threadPool.execute(() -> {
             while (true) {
@@ -699,28 +873,65 @@ public class IoTWorkbench {
                     if (device instanceof TemperatureSensor) {
                         double tmp = ((TemperatureSensor) device).getTemperature();
                         currentTime = (double) (System.currentTimeMillis() - timeZeroMillis) / 1000.0;
-                        temperatureArrayDataStore[i].add(new SensorDataPoint(currentTime, tmp));
+                        temperatureArrayDataStore[i].add(currentTime, tmp);
                         System.out.printf("DS18B20: Temperature (%s) : %.2f C %n", device.getId(), tmp);
                     }
                 }
-                if (boardView != null) {
-                    boardView.repaint();
+                repaintBoardView();
+                try {
+                    Thread.sleep(sensorDataCollectionInterval);
+                } catch (InterruptedException e) { // the thread pool is being shut down
+                    break;
                 }
-//                try {
-//                    Thread.sleep(sensorDataCollectionInterval);
-//                } catch (InterruptedException e) {
-//                }
             }
         });
     }
 
     public void setSensorDataCollectionInterval(int sensorDataCollectionInterval) {
-        this.sensorDataCollectionInterval = sensorDataCollectionInterval;
+        applySensorDataCollectionInterval(sensorDataCollectionInterval);
         final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
         pref.putInt("sensor_data_collection_interval", sensorDataCollectionInterval);
         database.child("sensorDataCollectionInterval").setValue(sensorDataCollectionInterval, null);
     }
 
+    // sensors without their own sampling interval follow this one
+    void applySensorDataCollectionInterval(int sensorDataCollectionInterval) {
+        this.sensorDataCollectionInterval = sensorDataCollectionInterval;
+        if (sensorScheduler != null) {
+            sensorScheduler.setDefaultInterval(sensorDataCollectionInterval);
+        }
+    }
+
+    public void setSamplingInterval(String channel, int interval) {
+        if (sensorScheduler != null) {
+            sensorScheduler.setInterval(channel, interval);
+        }
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        pref.putInt(channel + "_sampling_interval", interval);
+    }
+
+    public int getSamplingInterval(String channel) {
+        return sensorScheduler == null ? -1 : sensorScheduler.getInterval(channel);
+    }
+
+    SensorScheduler getSensorScheduler() {
+        return sensorScheduler;
+    }
+
+    public void setUplinkFlushInterval(int uplinkFlushInterval) {
+        uplink.setFlushInterval(uplinkFlushInterval);
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
+        pref.putInt("uplink_flush_interval", uplinkFlushInterval);
+    }
+
+    public int getUplinkFlushInterval() {
+        return uplink.getFlushInterval();
+    }
+
+    DatabaseUplink getUplink() {
+        return uplink;
+    }
+
     public int getSensorDataCollectionInterval() {
         return sensorDataCollectionInterval;
     }
@@ -738,11 +949,11 @@ public class IoTWorkbench {
         return temperature;
     }
 
-    public List<SensorDataPoint> getTemperatureDataStore() {
+    public SensorDataStore getTemperatureDataStore() {
         return temperatureDataStore;
     }
 
-    public List<SensorDataPoint>[] getTemperatureArrayDataStore() {
+    public SensorDataStore[] getTemperatureArrayDataStore() {
         return temperatureArrayDataStore;
     }
 
@@ -759,7 +970,7 @@ public class IoTWorkbench {
         return barometricPressure;
     }
 
-    public List<SensorDataPoint> getBarometricPressureDataStore() {
+    public SensorDataStore getBarometricPressureDataStore() {
         return barometricPressureDataStore;
     }
 
@@ -776,7 +987,7 @@ public class IoTWorkbench {
         return relativeHumidity;
     }
 
-    public List<SensorDataPoint> getRelativeHumidityDataStore() {
+    public SensorDataStore getRelativeHumidityDataStore() {
         return relativeHumidityDataStore;
     }
 
@@ -793,7 +1004,7 @@ public class IoTWorkbench {
         return visibleLux;
     }
 
-    public List<SensorDataPoint> getVisibleLuxDataStore() {
+    public SensorDataStore getVisibleLuxDataStore() {
         return visibleLuxDataStore;
     }
 
@@ -810,7 +1021,7 @@ public class IoTWorkbench {
         return infraredLux;
     }
 
-    public List<SensorDataPoint> getInfraredLuxDataStore() {
+    public SensorDataStore getInfraredLuxDataStore() {
         return infraredLuxDataStore;
     }
 
@@ -827,7 +1038,7 @@ public class IoTWorkbench {
         return lidarDistance;
     }
 
-    public List<SensorDataPoint> getLidarDistanceDataStore() {
+    public SensorDataStore getLidarDistanceDataStore() {
         return lidarDistanceDataStore;
     }
 
@@ -835,7 +1046,7 @@ public class IoTWorkbench {
         return ultrasonicDistance;
     }
 
-    public List<SensorDataPoint> getUltrasonicDistanceDataStore() {
+    public SensorDataStore getUltrasonicDistanceDataStore() {
         return ultrasonicDistanceDataStore;
     }
 
@@ -843,7 +1054,7 @@ public class IoTWorkbench {
         return ax;
     }
 
-    public List<SensorDataPoint> getAxDataStore() {
+    public SensorDataStore getAxDataStore() {
         return axDataStore;
     }
 
@@ -851,7 +1062,7 @@ public class IoTWorkbench {
         return ay;
     }
 
-    public List<SensorDataPoint> getAyDataStore() {
+    public SensorDataStore getAyDataStore() {
         return ayDataStore;
     }
 
@@ -859,15 +1070,27 @@ public class IoTWorkbench {
         return az;
     }
 
-    public List<SensorDataPoint> getAzDataStore() {
+    public SensorDataStore getAzDataStore() {
         return azDataStore;
     }
 
+    public SensorDataStore getGyroXDataStore() {
+        return gyroXDataStore;
+    }
+
+    public SensorDataStore getGyroYDataStore() {
+        return gyroYDataStore;
+    }
+
+    public SensorDataStore getGyroZDataStore() {
+        return gyroZDataStore;
+    }
+
     public double getPitch() {
         return pitch;
     }
 
-    public List<SensorDataPoint> getPitchDataStore() {
+    public SensorDataStore getPitchDataStore() {
         return pitchDataStore;
     }
 
@@ -875,7 +1098,7 @@ public class IoTWorkbench {
         return roll;
     }
 
-    public List<SensorDataPoint> getRollDataStore() {
+    public SensorDataStore getRollDataStore() {
         return rollDataStore;
     }
 
@@ -916,6 +1139,20 @@ public class IoTWorkbench {
             if (!threadPool.isShutdown()) {
                 threadPool.shutdownNow();
             }
+            if (sensorScheduler != null) {
+                sensorScheduler.shutdown();
+            }
+            uplink.shutdown();
+            ledAnimator.shutdown();
+            for (SensorDataLog log : dataLogs.values()) {
+                log.close();
+            }
+            if (vl53l0x != null) {
+                vl53l0x.stopContinuous();
+            }
+            if (hcsr04 != null) {
+                hcsr04.stop();
+            }
         } catch (Throwable t) {
             t.printStackTrace();
         }
@@ -939,11 +1176,12 @@ public class IoTWorkbench {
     }
 
     private void createAndShowGui() {
+        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
         boardView = new BoardView(this);
+        boardView.setFrameRate(pref.getInt("ui_frame_rate", 25));
         gui = new WorkbenchGui();
         gui.createAndShowGui(this);
         boardView.addGraphListener(gui);
-        final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
         boardView.setShowGraph(pref.getBoolean("show_graph", false));
     }
 
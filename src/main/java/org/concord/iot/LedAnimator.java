@@ -0,0 +1,204 @@
+package org.concord.iot;
+
+import org.concord.iot.drivers.APA102;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays one LED effect at a time on the APA102 strip, driven by a fixed-rate frame clock on a single thread.
+ * An effect advances in steps of its own duration, so its speed does not depend on the frame rate; a frame is
+ * rendered and committed only when the effect has moved. A clock tick that starts a whole period late is dropped.
+ *
+ * @author Charles Xie
+ */
+
+class LedAnimator {
+
+    interface Effect {
+
+        /**
+         * @return the duration of one step of this effect in milliseconds
+         */
+        int getStepInterval();
+
+        /**
+         * Called before the effect starts playing.
+         */
+        void reset(int numberOfPixels);
+
+        /**
+         * Advances the effect by one step.
+         */
+        void step();
+
+        /**
+         * Renders the current state into the back buffer of the strip, which is committed afterwards.
+         */
+        void render(APA102 apa102);
+
+    }
+
+    private final IoTWorkbench workbench;
+    private final ScheduledExecutorService clock;
+    private final Object frameLock = new Object();
+    private ScheduledFuture<?> future;
+    private volatile Effect effect;
+    private int frameRate; // frames per second
+    private long startTime; // nanoseconds
+    private long stepCount;
+    private boolean needsRender;
+
+    private volatile long framesRendered;
+    private volatile long droppedFrames;
+    private volatile long lastFrameTime; // nanoseconds
+    private volatile long maxFrameTime; // nanoseconds
+    private long totalFrameTime; // nanoseconds
+
+    LedAnimator(IoTWorkbench workbench, int frameRate) {
+        this.workbench = workbench;
+        this.frameRate = frameRate;
+        clock = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LED Animator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Stops the effect being played, if any, and starts the given one from its beginning.
+     */
+    synchronized void play(Effect e) {
+        stop();
+        synchronized (frameLock) {
+            e.reset(workbench.getNumberOfRgbLeds());
+            effect = e;
+            stepCount = 0;
+            needsRender = true;
+            startTime = System.nanoTime();
+        }
+        schedule();
+    }
+
+    /**
+     * Stops the given effect if it is the one being played. When this method returns, no frame of it is being rendered.
+     */
+    synchronized void stop(Effect e) {
+        if (effect == e) {
+            stop();
+        }
+    }
+
+    /**
+     * Stops the effect being played. When this method returns, no frame is being rendered.
+     */
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        synchronized (frameLock) { // wait for the frame in progress, if any
+            effect = null;
+        }
+    }
+
+    Effect getEffect() {
+        return effect;
+    }
+
+    synchronized void setFrameRate(int frameRate) {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+        }
+        this.frameRate = frameRate;
+        if (future != null) {
+            schedule();
+        }
+    }
+
+    int getFrameRate() {
+        return frameRate;
+    }
+
+    void shutdown() {
+        stop();
+        clock.shutdownNow();
+    }
+
+    private void schedule() {
+        if (future != null) {
+            future.cancel(false);
+        }
+        final Effect e = effect;
+        final long period = TimeUnit.SECONDS.toNanos(1) / frameRate;
+        final long[] deadline = {System.nanoTime()};
+        future = clock.scheduleAtFixedRate(() -> {
+            try {
+                tick(e, period, deadline);
+            } catch (Exception ex) { // an exception would otherwise stop the clock silently
+                ex.printStackTrace();
+            }
+        }, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    private void tick(Effect e, long period, long[] deadline) {
+        long now = System.nanoTime();
+        long late = now - deadline[0];
+        deadline[0] += period;
+        if (late >= period) {
+            droppedFrames++;
+            return;
+        }
+        synchronized (frameLock) {
+            if (effect != e) { // stopped or replaced while this tick was waiting
+                return;
+            }
+            long steps = (now - startTime) / TimeUnit.MILLISECONDS.toNanos(Math.max(1, e.getStepInterval()));
+            boolean moved = stepCount < steps;
+            while (stepCount < steps) {
+                e.step();
+                stepCount++;
+            }
+            if (moved || needsRender) {
+                needsRender = false;
+                e.render(workbench.apa102);
+                workbench.apa102.commit();
+                workbench.setLedColorsOnBoardView();
+                lastFrameTime = System.nanoTime() - now;
+                totalFrameTime += lastFrameTime;
+                if (lastFrameTime > maxFrameTime) {
+                    maxFrameTime = lastFrameTime;
+                }
+                framesRendered++;
+            }
+        }
+    }
+
+    long getFramesRendered() {
+        return framesRendered;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    double getLastFrameTime() { // milliseconds
+        return lastFrameTime * 1.0e-6;
+    }
+
+    double getMaxFrameTime() { // milliseconds
+        return maxFrameTime * 1.0e-6;
+    }
+
+    double getAverageFrameTime() { // milliseconds
+        return framesRendered == 0 ? 0 : totalFrameTime * 1.0e-6 / framesRendered;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LED Animator: %d frames rendered, %d dropped, frame time last %.2f ms, average %.2f ms, max %.2f ms", framesRendered, droppedFrames, getLastFrameTime(), getAverageFrameTime(), getMaxFrameTime());
+    }
+
+}
@@ -0,0 +1,306 @@
+package org.concord.iot;
+
+import com.pi4j.io.i2c.I2CBus;
+import org.concord.iot.drivers.APA102;
+import org.concord.iot.drivers.BME280;
+import org.concord.iot.drivers.BMP280;
+import org.concord.iot.drivers.LIS3DH;
+import org.concord.iot.drivers.MPU6050;
+import org.concord.iot.drivers.TSL2561;
+import org.concord.iot.drivers.VCNL4010;
+import org.concord.iot.drivers.VL53L0X;
+import org.concord.iot.drivers.simulated.SimulatedBoard;
+
+import java.awt.Color;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the acquisition pipeline of many simulated boards at once. Each board has the drivers of its sensors and of its strip of
+ * RGB LEDs, and a {@link SensorScheduler} that samples them into {@link SensorDataStore}s the way the workbench does, with a
+ * {@link SensorDataLog} for each store if a directory is given. All the boards send their readings through one
+ * {@link DatabaseUplink} without a database. The HC-SR04 is left out, as its driver needs a trigger thread for each board.
+ * <p>
+ * The schedulers of all the boards share one pool of threads, but every board also has the worker thread of its I2C bus and the
+ * writer thread of its LEDs, so each board adds two threads to the pool. The duration of a run therefore includes handing its
+ * transactions over to the worker of the bus and back, which with many boards can take longer than the transactions themselves.
+ * The stores take about 16 MB of heap for each board, mostly for their rollup tiers, so a thousand boards need a heap of 16 GB.
+ * <p>
+ * The arguments are the number of boards, the number of threads of the pool, the duration in seconds, the sampling interval in
+ * milliseconds, and the directory of the logs, which default to 50 boards, 64 threads, 10 seconds, 100 ms, and no logs.
+ *
+ * @author Charles Xie
+ */
+
+public class LoadTest {
+
+    private final static int STORE_CAPACITY = 3600;
+    private final static int LOG_SEGMENT_RECORDS = 4096;
+    private final static Color[] COLORS = {Color.RED, Color.ORANGE, Color.YELLOW, Color.GREEN, Color.CYAN, Color.BLUE, Color.MAGENTA};
+
+    // the runs of a channel on all the boards
+    private static class Statistics {
+
+        final LongAdder runs = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder duration = new LongAdder(); // nanoseconds
+        final AtomicLong maxDuration = new AtomicLong(); // nanoseconds
+
+    }
+
+    private final ScheduledExecutorService executor;
+    private final DatabaseUplink uplink = new DatabaseUplink(null, 1000);
+    private final Map<String, Statistics> statistics = new LinkedHashMap<>();
+    private final int interval; // milliseconds
+    private final File logDirectory;
+    private final long timeZeroMillis = System.currentTimeMillis();
+
+    private class Node {
+
+        final SimulatedBoard board;
+        final SensorScheduler scheduler;
+        final List<SensorDataStore> stores = new ArrayList<>();
+        final List<SensorDataLog> logs = new ArrayList<>();
+        final String prefix;
+
+        Node(int index) throws Exception {
+            board = new SimulatedBoard(index);
+            scheduler = new SensorScheduler(interval, executor);
+            prefix = "board" + index + "/";
+            String temperatureKey = prefix + "temperature";
+            String barometricPressureKey = prefix + "barometricPressure";
+            String relativeHumidityKey = prefix + "relativeHumidity";
+            String visibleLuxKey = prefix + "visibleLux";
+            String infraredLuxKey = prefix + "infraredLux";
+            String distanceKey = prefix + "distance";
+
+            BMP280 bmp280 = new BMP280(board, BMP280.Protocol.I2C, BMP280.ADDR_SDO_2_VDDIO, I2CBus.BUS_1);
+            bmp280.setIndoorNavigationMode();
+            bmp280.setMode(BMP280.Mode.NORMAL, true);
+            SensorDataStore bmp280Temperature = createDataStore("bmp280_temperature");
+            SensorDataStore bmp280Pressure = createDataStore("bmp280_pressure");
+            addChannel("bmp280", () -> {
+                double t = getTime();
+                double[] results = bmp280.sampleDeviceReads();
+                bmp280Temperature.add(t, results[BMP280.TEMP_VAL_C]);
+                bmp280Pressure.add(t, results[BMP280.PRES_VAL]);
+                uplink.put(temperatureKey, results[BMP280.TEMP_VAL_C]);
+                uplink.put(barometricPressureKey, results[BMP280.PRES_VAL]);
+            });
+
+            BME280 bme280 = new BME280(board);
+            SensorDataStore bme280Temperature = createDataStore("bme280_temperature");
+            SensorDataStore bme280Pressure = createDataStore("bme280_pressure");
+            SensorDataStore relativeHumidity = createDataStore("relative_humidity");
+            addChannel("bme280", () -> {
+                double t = getTime();
+                bme280.read();
+                bme280Temperature.add(t, bme280.getTemperature());
+                bme280Pressure.add(t, bme280.getPressure());
+                relativeHumidity.add(t, bme280.getRelativeHumidity());
+                uplink.put(relativeHumidityKey, bme280.getRelativeHumidity());
+                uplink.put(temperatureKey, bme280.getTemperature());
+                uplink.put(barometricPressureKey, bme280.getPressure());
+            });
+
+            TSL2561 tsl2561 = new TSL2561(board);
+            SensorDataStore visibleLux = createDataStore("visible_lux");
+            SensorDataStore infraredLux = createDataStore("infrared_lux");
+            addChannel("tsl2561", () -> {
+                double t = getTime();
+                if (tsl2561.read()) {
+                    visibleLux.add(t, tsl2561.getVisibleLux());
+                    infraredLux.add(t, tsl2561.getInfraredLux());
+                    uplink.put(visibleLuxKey, tsl2561.getVisibleLux());
+                    uplink.put(infraredLuxKey, tsl2561.getInfraredLux());
+                }
+            });
+
+            VL53L0X vl53l0x = new VL53L0X(board);
+            vl53l0x.startContinuous(0);
+            SensorDataStore distance = createDataStore("distance");
+            addChannel("vl53l0x", () -> {
+                double t = getTime();
+                if (vl53l0x.poll()) {
+                    distance.add(t, vl53l0x.latestRange());
+                    uplink.put(distanceKey, vl53l0x.latestRange());
+                }
+            });
+
+            VCNL4010 vcnl4010 = new VCNL4010(board);
+            addChannel("vcnl4010", vcnl4010::read);
+
+            LIS3DH lis3dh = new LIS3DH(board);
+            SensorDataStore ax = createDataStore("ax");
+            SensorDataStore ay = createDataStore("ay");
+            SensorDataStore az = createDataStore("az");
+            SensorDataStore pitch = createDataStore("pitch");
+            SensorDataStore roll = createDataStore("roll");
+            addChannel("lis3dh", () -> {
+                double t = getTime();
+                lis3dh.read();
+                ax.add(t, lis3dh.getAx());
+                ay.add(t, lis3dh.getAy());
+                az.add(t, lis3dh.getAz());
+                pitch.add(t, lis3dh.getPitch());
+                roll.add(t, lis3dh.getRoll());
+            });
+
+            MPU6050 mpu6050 = new MPU6050(board);
+            double[] accelerations = new double[3];
+            double[] gyroAngularSpeeds = new double[3];
+            addChannel("mpu6050", () -> {
+                mpu6050.updateValues();
+                mpu6050.getAccelAccelerations(accelerations);
+                mpu6050.getGyroAngularSpeeds(gyroAngularSpeeds);
+            });
+
+            APA102 apa102 = new APA102(board, WorkbenchState.NUMBER_OF_RGB_LEDS);
+            int[] frame = {0};
+            addChannel("apa102", () -> {
+                for (int i = 0; i < apa102.getNumberOfPixels(); i++) {
+                    apa102.setColor(i, COLORS[(frame[0] + i) % COLORS.length]);
+                }
+                apa102.commit();
+                frame[0]++;
+            });
+        }
+
+        private SensorDataStore createDataStore(String name) throws Exception {
+            SensorDataStore store = new SensorDataStore(name, STORE_CAPACITY);
+            if (logDirectory != null) {
+                SensorDataLog log = new SensorDataLog(new File(logDirectory, prefix + name), LOG_SEGMENT_RECORDS, 3600000L, 4);
+                log.setTimeOrigin(timeZeroMillis / 1000.0);
+                store.setLog(log);
+                logs.add(log);
+            }
+            stores.add(store);
+            return store;
+        }
+
+        private void addChannel(String name, SensorScheduler.Sampler sampler) {
+            Statistics s;
+            synchronized (statistics) {
+                s = statistics.computeIfAbsent(name, k -> new Statistics());
+            }
+            scheduler.addChannel(name, 0, () -> {
+                long t = System.nanoTime();
+                try {
+                    sampler.sample();
+                } catch (Exception e) {
+                    s.errors.increment();
+                }
+                t = System.nanoTime() - t;
+                s.runs.increment();
+                s.duration.add(t);
+                s.maxDuration.accumulateAndGet(t, Math::max);
+            });
+        }
+
+    }
+
+    private LoadTest(int threads, int interval, File logDirectory) {
+        executor = Executors.newScheduledThreadPool(threads);
+        this.interval = interval;
+        this.logDirectory = logDirectory;
+    }
+
+    private double getTime() {
+        return (System.currentTimeMillis() - timeZeroMillis) / 1000.0;
+    }
+
+    private static int parse(String[] args, int i, String name, int defaultValue) {
+        int n = args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+        if (n < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + n);
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int boards = parse(args, 0, "Number of boards", 50);
+        int threads = parse(args, 1, "Number of threads", 64);
+        int seconds = parse(args, 2, "Duration", 10);
+        int interval = parse(args, 3, "Sampling interval", 100);
+        LoadTest test = new LoadTest(threads, interval, args.length > 4 ? new File(args[4]) : null);
+
+        long t0 = System.nanoTime();
+        ExecutorService builder = Executors.newFixedThreadPool(Math.min(boards, 256)); // the MPU6050 waits for ten seconds to calibrate
+        List<Future<Node>> futures = new ArrayList<>();
+        for (int i = 0; i < boards; i++) {
+            final int index = i;
+            futures.add(builder.submit(() -> test.new Node(index)));
+        }
+        List<Node> nodes = new ArrayList<>();
+        for (Future<Node> f : futures) {
+            nodes.add(f.get());
+        }
+        builder.shutdown();
+        System.out.printf("Created %d simulated boards in %.1f s%n", boards, (System.nanoTime() - t0) * 1.0e-9);
+
+        for (Node node : nodes) {
+            node.scheduler.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (Node node : nodes) {
+            node.scheduler.shutdown();
+        }
+        test.executor.shutdown();
+        test.executor.awaitTermination(60, TimeUnit.SECONDS);
+
+        System.out.printf("%d boards sampled every %d ms for %d s by %d threads, with %d threads running (an I2C worker and an LED writer for each board)%n",
+                boards, interval, seconds, threads, liveThreads);
+        for (Map.Entry<String, Statistics> e : test.statistics.entrySet()) {
+            Statistics s = e.getValue();
+            long runs = s.runs.sum();
+            long missed = 0;
+            for (Node node : nodes) {
+                missed += node.scheduler.getChannel(e.getKey()).getMissedDeadlines();
+            }
+            System.out.printf("%-8s: %8.0f runs/s (%.0f%% of the schedule), %d missed deadlines, %d errors, duration mean %.2f ms, max %.2f ms%n",
+                    e.getKey(), (double) runs / seconds, 100.0 * runs * interval / (1000.0 * seconds * boards), missed, s.errors.sum(),
+                    runs > 0 ? s.duration.sum() * 1.0e-6 / runs : 0, s.maxDuration.get() * 1.0e-6);
+        }
+        long samples = 0;
+        long recordsWritten = 0;
+        long recordsDropped = 0;
+        for (Node node : nodes) {
+            for (SensorDataStore store : node.stores) {
+                samples += store.size();
+            }
+            for (SensorDataLog log : node.logs) {
+                recordsWritten += log.getRecordsWritten();
+                recordsDropped += log.getRecordsDropped();
+            }
+        }
+        System.out.printf("%d samples in the data stores%n", samples);
+        if (test.logDirectory != null) {
+            System.out.printf("%d records logged, %d dropped%n", recordsWritten, recordsDropped);
+        }
+        System.out.println(test.uplink);
+        System.out.println(nodes.get(0).board.getI2CBus(I2CBus.BUS_1));
+
+        test.uplink.shutdown();
+        for (Node node : nodes) {
+            for (SensorDataLog log : node.logs) {
+                log.close();
+            }
+            node.board.shutdown();
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.concord.iot;
+
+import javax.swing.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces repaint requests from the sampling threads, the LED animator, and the mouse into at most one repaint of a component per
+ * frame period. A request can be made from any thread; it only sets a dirty flag, and the first request after a repaint arranges for
+ * the next one on the event dispatch thread, no earlier than a frame period after the last one.
+ *
+ * @author Charles Xie
+ */
+
+class RepaintScheduler {
+
+    private final JComponent component;
+    private final Timer timer;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicLong requestedRepaints = new AtomicLong();
+    private volatile long deliveredRepaints;
+    private volatile int frameRate; // frames per second
+    private long lastRepaintTime; // milliseconds, accessed only on the event dispatch thread
+
+    RepaintScheduler(JComponent component, int frameRate) {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+        }
+        this.component = component;
+        this.frameRate = frameRate;
+        timer = new Timer(0, e -> repaint());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Marks the component as needing a repaint. This method can be called from any thread.
+     */
+    void request() {
+        requestedRepaints.incrementAndGet();
+        if (dirty.compareAndSet(false, true)) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                schedule();
+            } else {
+                SwingUtilities.invokeLater(this::schedule);
+            }
+        }
+    }
+
+    private void schedule() {
+        long wait = lastRepaintTime + 1000 / frameRate - System.currentTimeMillis();
+        if (wait <= 0) {
+            repaint();
+        } else {
+            timer.setInitialDelay((int) wait);
+            timer.restart();
+        }
+    }
+
+    private void repaint() {
+        dirty.set(false); // cleared first, so that a request made while painting schedules another frame
+        lastRepaintTime = System.currentTimeMillis();
+        deliveredRepaints++;
+        component.repaint();
+    }
+
+    void setFrameRate(int frameRate) {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+        }
+        this.frameRate = frameRate;
+    }
+
+    int getFrameRate() {
+        return frameRate;
+    }
+
+    long getRequestedRepaints() {
+        return requestedRepaints.get();
+    }
+
+    long getDeliveredRepaints() {
+        return deliveredRepaints;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Repaint Scheduler: %d repaints requested, %d delivered at up to %d fps", requestedRepaints.get(), deliveredRepaints, frameRate);
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.concord.iot;
+
+/**
+ * Buckets of a fixed time width that summarize the samples of a channel (first, last, minimum, maximum, sum, and count), built as the
+ * samples arrive. Only buckets that received samples are kept, in a ring of fixed capacity that drops the oldest bucket when full.
+ * A coarse tier can draw hours or days of data in as many steps as there are buckets in view rather than samples.
+ *
+ * @author Charles Xie
+ */
+
+class RollupTier {
+
+    private final double width; // seconds
+    private final int capacity;
+    private final long[] ids; // bucket index, i.e., floor(time / width)
+    private final double[] first, last, min, max, sum;
+    private final int[] counts;
+    private int head, size;
+
+    RollupTier(double width, int capacity) {
+        if (width <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Width and capacity must be positive: " + width + ", " + capacity);
+        }
+        this.width = width;
+        this.capacity = capacity;
+        ids = new long[capacity];
+        first = new double[capacity];
+        last = new double[capacity];
+        min = new double[capacity];
+        max = new double[capacity];
+        sum = new double[capacity];
+        counts = new int[capacity];
+    }
+
+    double getWidth() {
+        return width;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(double time, double value) {
+        long id = (long) Math.floor(time / width);
+        if (size > 0) {
+            int k = physicalIndex(size - 1);
+            if (id <= ids[k]) { // a sample that is late by less than a bucket is merged into the latest bucket
+                if (value < min[k]) min[k] = value;
+                if (value > max[k]) max[k] = value;
+                last[k] = value;
+                sum[k] += value;
+                counts[k]++;
+                return;
+            }
+        }
+        int k;
+        if (size < capacity) {
+            k = physicalIndex(size);
+            size++;
+        } else {
+            k = head;
+            head = head + 1 == capacity ? 0 : head + 1;
+        }
+        ids[k] = id;
+        first[k] = last[k] = min[k] = max[k] = sum[k] = value;
+        counts[k] = 1;
+    }
+
+    /**
+     * @return true if this tier still has the bucket that contains the given time, or any bucket after it if that one had no samples
+     */
+    boolean covers(double time) {
+        return size > 0 && ids[head] <= (long) Math.floor(time / width);
+    }
+
+    /**
+     * Merges the buckets that start in [t0, t0 + columns * dt) into the columns, in the same way as
+     * {@link SensorDataStore#envelope(double, double, int, double[], double[], double[], double[])} does with samples.
+     *
+     * @return the number of columns that have received their first bucket
+     */
+    int envelope(double t0, double dt, int columns, double[] first, double[] min, double[] max, double[] last) {
+        int filled = 0;
+        double tmax = t0 + columns * dt;
+        for (int i = lowerBound((long) Math.floor(t0 / width)); i < size; i++) {
+            int k = physicalIndex(i);
+            double t = Math.max(t0, ids[k] * width);
+            if (t >= tmax) {
+                break;
+            }
+            int c = (int) ((t - t0) / dt);
+            if (c >= columns) {
+                break;
+            }
+            if (Double.isNaN(first[c])) {
+                first[c] = this.first[k];
+                min[c] = this.min[k];
+                max[c] = this.max[k];
+                filled++;
+            } else {
+                if (this.min[k] < min[c]) min[c] = this.min[k];
+                if (this.max[k] > max[c]) max[c] = this.max[k];
+            }
+            last[c] = this.last[k];
+        }
+        return filled;
+    }
+
+    // the logical index of the first bucket whose id is not less than the given one
+    private int lowerBound(long id) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ids[physicalIndex(mid)] < id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int physicalIndex(int i) {
+        int k = head + i;
+        return k >= capacity ? k - capacity : k;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,261 @@
+package org.concord.iot;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the samples of some channels within a time range to a file, a page at a time, so that an export of millions of samples
+ * needs no more memory than one page per channel. It is meant to run off the event dispatch thread, reporting its progress to a
+ * listener and stopping early if it is cancelled.
+ * <p>
+ * A CSV export has a row for every sample of the first channel, with the other channels aligned by time in the same way as in
+ * {@link SensorDataTableModel}: each row shows their latest sample at or before its time. A columnar export keeps every sample
+ * of every channel in a compact binary file in big-endian order: a header of the magic number, the version, and the number of
+ * channels, then for each channel its name (a short length followed by UTF-8 bytes) and row groups of up to PAGE_SIZE samples,
+ * each an int count followed by that many times and then that many values as doubles. A count of zero ends the channel.
+ *
+ * @author Charles Xie
+ */
+
+class SensorDataExporter {
+
+    enum Format {
+
+        CSV("csv"), COLUMNAR("sdcol");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+
+    }
+
+    interface ProgressListener {
+        void progress(long done, long total);
+    }
+
+    final static int COLUMNAR_MAGIC = 0x53444346; // "SDCF"
+    final static int COLUMNAR_VERSION = 1;
+    private final static int PAGE_SIZE = 4096;
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    private final String[] names;
+    private final SensorDataStore[] stores;
+    private final double t0, t1;
+    private ProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    // reads the samples of a channel within the range one page at a time
+    private static class Cursor {
+
+        final SensorDataStore store;
+        final double[] times = new double[PAGE_SIZE];
+        final double[] values = new double[PAGE_SIZE];
+        final long end; // the sequence number after the last sample in the range, fixed when the export starts
+        long next; // the sequence number of the first sample of the next page
+        int position, count;
+
+        // the range starts with the first sample at or after t0, or with the last one before it if it is held over
+        Cursor(SensorDataStore store, double t0, double t1, boolean holdOver) {
+            this.store = store;
+            next = Math.max(store.getFirstSequenceNumber(), holdOver ? store.floorSequenceNumber(t0) : store.floorSequenceNumber(Math.nextDown(t0)) + 1);
+            end = store.floorSequenceNumber(t1) + 1;
+        }
+
+        long remaining() {
+            return Math.max(0, end - next) + count - position;
+        }
+
+        boolean hasNext() {
+            if (position < count) {
+                return true;
+            }
+            if (next >= end) {
+                return false;
+            }
+            int n = store.read(next, times, values);
+            if (n == 0) { // the oldest samples may have been dropped from the archive since the export started
+                long first = store.getFirstSequenceNumber();
+                if (next < first && first < end) {
+                    next = first;
+                    n = store.read(next, times, values);
+                }
+            }
+            count = (int) Math.min(n, end - next);
+            position = 0;
+            next += count;
+            return count > 0;
+        }
+
+    }
+
+    /**
+     * @param names the names of the channels, which are used as column headers
+     */
+    SensorDataExporter(String[] names, SensorDataStore[] stores, double t0, double t1) {
+        if (names.length != stores.length || stores.length == 0) {
+            throw new IllegalArgumentException("Expected a name for each of one or more channels: " + names.length + ", " + stores.length);
+        }
+        this.names = names;
+        this.stores = stores;
+        this.t0 = t0;
+        this.t1 = t1;
+    }
+
+    void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stops the export in progress, which then throws an {@link InterruptedIOException}. This method can be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Writes the file, which is deleted if the export fails or is cancelled.
+     *
+     * @return the number of rows written for a CSV file, or the number of samples for a columnar file
+     */
+    long export(File file, Format format) throws IOException {
+        boolean done = false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long n = format == Format.CSV ? exportCsv(channel) : exportColumnar(channel);
+            done = true;
+            return n;
+        } finally {
+            if (!done && !file.delete()) {
+                System.out.println("Failed to delete incomplete export: " + file);
+            }
+        }
+    }
+
+    private long exportCsv(FileChannel channel) throws IOException {
+        Cursor[] cursors = new Cursor[stores.length];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(stores[i], t0, t1, i > 0); // so that the first rows show the values of the other channels at t0
+        }
+        double[] held = new double[cursors.length]; // the latest value of each other channel at the time of the row
+        boolean[] holding = new boolean[cursors.length];
+        long total = cursors[0].remaining();
+        long rows = 0;
+        Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+        StringBuilder sb = new StringBuilder("Time");
+        for (String name : names) {
+            sb.append(',').append(escape(name));
+        }
+        out.write(sb.append('\n').toString());
+        Cursor primary = cursors[0];
+        while (primary.hasNext()) {
+            checkCancelled();
+            for (; primary.position < primary.count; primary.position++, rows++) {
+                double t = primary.times[primary.position];
+                sb.setLength(0);
+                sb.append(t).append(',').append(primary.values[primary.position]);
+                for (int i = 1; i < cursors.length; i++) {
+                    Cursor c = cursors[i];
+                    while (c.hasNext() && c.times[c.position] <= t) {
+                        held[i] = c.values[c.position++];
+                        holding[i] = true;
+                    }
+                    sb.append(',');
+                    if (holding[i]) {
+                        sb.append(held[i]);
+                    }
+                }
+                out.write(sb.append('\n').toString());
+            }
+            reportProgress(rows, total);
+        }
+        out.flush();
+        return rows;
+    }
+
+    private long exportColumnar(FileChannel channel) throws IOException {
+        Cursor[] cursors = new Cursor[stores.length];
+        long total = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(stores[i], t0, t1, false);
+            total += cursors[i].remaining();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.putInt(COLUMNAR_MAGIC).putInt(COLUMNAR_VERSION).putInt(cursors.length);
+        long samples = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            ensure(channel, buffer, 2 + name.length);
+            buffer.putShort((short) name.length).put(name);
+            Cursor c = cursors[i];
+            while (c.hasNext()) {
+                checkCancelled();
+                int n = c.count - c.position;
+                ensure(channel, buffer, 4);
+                buffer.putInt(n);
+                for (int j = c.position; j < c.count; j++) {
+                    ensure(channel, buffer, 8);
+                    buffer.putDouble(c.times[j]);
+                }
+                for (int j = c.position; j < c.count; j++) {
+                    ensure(channel, buffer, 8);
+                    buffer.putDouble(c.values[j]);
+                }
+                c.position = c.count;
+                samples += n;
+                reportProgress(samples, total);
+            }
+            ensure(channel, buffer, 4);
+            buffer.putInt(0);
+        }
+        flush(channel, buffer);
+        return samples;
+    }
+
+    // make room in the buffer for the given number of bytes by writing it out if necessary
+    private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
+
+    private void reportProgress(long done, long total) {
+        if (progressListener != null) {
+            progressListener.progress(done, total);
+        }
+    }
+
+    private static String escape(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+}
@@ -0,0 +1,448 @@
+package org.concord.iot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An append-only log of the (time, value) samples of one channel, written to memory-mapped segment files of fixed-size binary records.
+ * A segment holds a header (magic number, version, record count) followed by records of two doubles: the epoch time in seconds and the value.
+ * A new segment is started when the current one is full or older than the segment duration, and the oldest segments are deleted beyond a
+ * maximum count. On opening, the existing segments are mapped again and appending continues where it left off.
+ * <p>
+ * Appending only writes into the mapped buffer, so it neither allocates nor waits for the disk; the operating system writes the pages back.
+ * The next segment is created and mapped ahead of time by a background thread, so rolling over only swaps it in. Should it not be ready
+ * when the current segment is full, the samples are dropped until it is.
+ * <p>
+ * Once a segment is sealed by rolling to the next one, the background thread rewrites it as a {@link CompressedChunk} in a ".sdc" file
+ * and deletes the raw ".seg" file, which typically takes a small fraction of the space for slowly changing readings. The oldest segments
+ * beyond the maximum count are deleted by the same thread.
+ *
+ * @author Charles Xie
+ */
+
+class SensorDataLog {
+
+    private final static int MAGIC = 0x53444C47; // "SDLG"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static int RECORD_SIZE = 16;
+    private final static int COUNT_OFFSET = 8;
+    private final static int COMPRESSED_MAGIC = 0x53444343; // "SDCC"
+
+    private final static ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Data Log Compressor");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private static class Segment {
+
+        File file;
+        int count;
+        boolean compressed;
+
+        Segment(File file, int count) {
+            this.file = file;
+            this.count = count;
+        }
+
+    }
+
+    private final File directory;
+    private final int segmentRecords;
+    private final long segmentDuration; // milliseconds
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private MappedByteBuffer buffer; // the buffer of the last segment, null if a new segment must be started before appending
+    private Segment next; // created and mapped in the background, to be swapped in when rolling over
+    private MappedByteBuffer nextBuffer;
+    private boolean housekeepingPending;
+    private final Runnable housekeeping = this::housekeep;
+    private double segmentStartTime; // epoch seconds of the first record in the last segment
+    private volatile double timeOrigin; // epoch seconds that correspond to time zero of the data store
+    private long recordsWritten;
+    private long recordsDropped;
+
+    SensorDataLog(File directory, int segmentRecords, long segmentDuration, int maxSegments) throws IOException {
+        if (segmentRecords < 1 || maxSegments < 1) {
+            throw new IllegalArgumentException("Segment size and count must be positive: " + segmentRecords + ", " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.segmentDuration = segmentDuration;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        recover();
+        prepareNextSegment();
+        requestHousekeeping();
+    }
+
+    // map the existing segments again, trusting records beyond the count in the header if the count was not written back before a crash
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg") || name.endsWith(".sdc") || name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (f1, f2) -> Long.compare(segmentId(f1), segmentId(f2)));
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) { // a compression that did not finish
+                f.delete();
+                continue;
+            }
+            if (f.getName().endsWith(".sdc")) {
+                Segment s = readCompressedHeader(f);
+                if (s != null) {
+                    if (!segments.isEmpty() && segmentId(segments.get(segments.size() - 1).file) == segmentId(f)) { // the raw segment was not deleted yet
+                        segments.get(segments.size() - 1).file.delete();
+                        segments.set(segments.size() - 1, s);
+                    } else {
+                        segments.add(s);
+                    }
+                }
+                continue;
+            }
+            if (!segments.isEmpty() && segmentId(segments.get(segments.size() - 1).file) == segmentId(f)) { // already compressed
+                f.delete();
+                continue;
+            }
+            MappedByteBuffer b = map(f, true);
+            if (b == null) {
+                continue;
+            }
+            int capacity = (b.capacity() - HEADER_SIZE) / RECORD_SIZE;
+            int count = Math.min(b.getInt(COUNT_OFFSET), capacity);
+            while (count < capacity && b.getDouble(HEADER_SIZE + count * RECORD_SIZE) != 0) {
+                count++;
+            }
+            if (count == 0) { // prepared for rolling over but never used
+                f.delete();
+                continue;
+            }
+            segments.add(new Segment(f, count));
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.get(segments.size() - 1);
+            if (!last.compressed && last.count > 0 && last.count < segmentRecords) {
+                buffer = map(last.file, false);
+                if (buffer != null) {
+                    segmentStartTime = buffer.getDouble(HEADER_SIZE);
+                    buffer.putInt(COUNT_OFFSET, last.count);
+                }
+            }
+        }
+    }
+
+    private static long segmentId(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('.')));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // returns null for a file that is not a segment of this version
+    private MappedByteBuffer map(File f, boolean readOnly) throws IOException {
+        try (FileChannel channel = readOnly ? FileChannel.open(f.toPath(), StandardOpenOption.READ) : FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = readOnly ? channel.size() : HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer b = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+                return null;
+            }
+            return b;
+        }
+    }
+
+    private static Segment readCompressedHeader(File f) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != COMPRESSED_MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            Segment s = new Segment(f, in.readInt()); // the chunk starts with its sample count
+            s.compressed = true;
+            return s;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static CompressedChunk readCompressed(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != COMPRESSED_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a compressed segment: " + f);
+            }
+            return CompressedChunk.readFrom(in);
+        }
+    }
+
+    private synchronized void requestHousekeeping() {
+        if (!housekeepingPending) {
+            housekeepingPending = true;
+            COMPRESSOR.execute(housekeeping);
+        }
+    }
+
+    // on the background thread: compress the sealed segments, delete the oldest ones beyond the maximum count, and prepare the next one
+    private void housekeep() {
+        List<Segment> sealed = new ArrayList<>();
+        List<File> expired = new ArrayList<>();
+        synchronized (this) {
+            housekeepingPending = false;
+            while (segments.size() > maxSegments) {
+                expired.add(segments.remove(0).file);
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                Segment s = segments.get(i);
+                if (!s.compressed && (i < segments.size() - 1 || buffer == null)) { // the last segment is sealed only if it is not being appended to
+                    sealed.add(s);
+                }
+            }
+        }
+        for (File f : expired) {
+            if (!f.delete()) {
+                System.err.println("Cannot delete " + f);
+            }
+        }
+        for (Segment s : sealed) {
+            compress(s);
+        }
+        prepareNextSegment();
+    }
+
+    // rewrite a sealed segment as a compressed chunk, replacing the raw file only when the new one is complete
+    private void compress(Segment s) {
+        File raw;
+        int count;
+        synchronized (this) {
+            if (s.compressed || !segments.contains(s)) {
+                return;
+            }
+            raw = s.file;
+            count = s.count;
+        }
+        File tmp = new File(directory, segmentId(raw) + ".tmp");
+        File sdc = new File(directory, segmentId(raw) + ".sdc");
+        try {
+            MappedByteBuffer b = map(raw, true);
+            if (b == null) {
+                return;
+            }
+            CompressedChunk.Encoder encoder = new CompressedChunk.Encoder();
+            for (int i = 0; i < count; i++) {
+                int k = HEADER_SIZE + i * RECORD_SIZE;
+                encoder.add(b.getDouble(k), b.getDouble(k + 8));
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(COMPRESSED_MAGIC);
+                out.writeInt(VERSION);
+                encoder.seal().writeTo(out);
+            }
+            if (!tmp.renameTo(sdc)) {
+                throw new IOException("Cannot rename " + tmp + " to " + sdc);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (segments.contains(s)) {
+                s.file = sdc;
+                s.compressed = true;
+                raw.delete();
+            } else { // deleted by the retention policy in the meantime
+                sdc.delete();
+            }
+        }
+    }
+
+    // visit the records of a segment from the given index on, with epoch times
+    private void read(Segment s, int from, SensorDataStore.SampleVisitor visitor) throws IOException {
+        if (s.compressed) {
+            CompressedChunk.Decoder d = readCompressed(s.file).decoder();
+            for (int i = 0; i < s.count && d.next(); i++) {
+                if (i >= from) {
+                    visitor.visit(d.getTime(), d.getValue());
+                }
+            }
+        } else {
+            MappedByteBuffer b = map(s.file, true);
+            if (b != null) {
+                for (int i = from; i < s.count; i++) {
+                    int k = HEADER_SIZE + i * RECORD_SIZE;
+                    visitor.visit(b.getDouble(k), b.getDouble(k + 8));
+                }
+            }
+        }
+    }
+
+    // create and map the segment that the next roll-over swaps in, unless there is one already
+    private void prepareNextSegment() {
+        long id;
+        synchronized (this) {
+            if (next != null) {
+                return;
+            }
+            id = System.currentTimeMillis();
+            if (!segments.isEmpty()) {
+                id = Math.max(id, segmentId(segments.get(segments.size() - 1).file) + 1); // keep the names in order even if the clock goes back
+            }
+        }
+        File f = new File(directory, id + ".seg");
+        MappedByteBuffer b;
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            b = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) segmentRecords * RECORD_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        b.putInt(0, MAGIC);
+        b.putInt(4, VERSION);
+        b.putInt(COUNT_OFFSET, 0);
+        synchronized (this) {
+            next = new Segment(f, 0);
+            nextBuffer = b;
+        }
+    }
+
+    /**
+     * Sets the epoch time in seconds that corresponds to time zero of the samples passed to {@link #append(double, double)}.
+     */
+    void setTimeOrigin(double epochSeconds) {
+        timeOrigin = epochSeconds;
+    }
+
+    double getTimeOrigin() {
+        return timeOrigin;
+    }
+
+    /**
+     * @param time the time of the sample in seconds relative to the time origin
+     */
+    synchronized void append(double time, double value) {
+        double t = timeOrigin + time;
+        Segment last = buffer == null ? null : segments.get(segments.size() - 1);
+        if (last == null || last.count >= segmentRecords || (t - segmentStartTime) * 1000 >= segmentDuration) {
+            if (next != null) { // roll over to the segment prepared in the background
+                buffer = nextBuffer;
+                last = next;
+                segments.add(next);
+                next = null;
+                nextBuffer = null;
+                segmentStartTime = t;
+                requestHousekeeping();
+            } else {
+                requestHousekeeping();
+                if (last == null || last.count >= segmentRecords) { // keep writing into a segment that is only too old, but drop the samples if it is full
+                    recordsDropped++;
+                    return;
+                }
+            }
+        }
+        int k = HEADER_SIZE + last.count * RECORD_SIZE;
+        buffer.putDouble(k + 8, value);
+        buffer.putDouble(k, t); // written last, as a nonzero time marks a complete record during recovery
+        last.count++;
+        buffer.putInt(COUNT_OFFSET, last.count);
+        recordsWritten++;
+    }
+
+    /**
+     * @return the epoch time in seconds of the earliest of the latest n records, or NaN if the log is empty
+     */
+    synchronized double getEarliestTime(long n) throws IOException {
+        long skip = Math.max(0, getSize() - n);
+        final double[] earliest = {Double.NaN};
+        for (Segment s : segments) {
+            if (skip < s.count) {
+                read(s, (int) skip, (t, v) -> {
+                    if (Double.isNaN(earliest[0])) {
+                        earliest[0] = t;
+                    }
+                });
+                if (!Double.isNaN(earliest[0])) {
+                    break;
+                }
+            }
+            skip = Math.max(0, skip - s.count);
+        }
+        return earliest[0];
+    }
+
+    /**
+     * Loads the latest records, as many as the store and its archive can hold, into the store with times relative to the time origin.
+     *
+     * @return the number of records loaded
+     */
+    synchronized long restore(SensorDataStore store) throws IOException {
+        long skip = Math.max(0, getSize() - store.getCapacity() - store.getArchiveCapacity());
+        final long[] loaded = {0};
+        final double origin = timeOrigin;
+        for (Segment s : segments) {
+            if (skip >= s.count) {
+                skip -= s.count;
+                continue;
+            }
+            read(s, (int) skip, (t, v) -> {
+                store.add(t - origin, v);
+                loaded[0]++;
+            });
+            skip = 0;
+        }
+        return loaded[0];
+    }
+
+    synchronized long getSize() {
+        long n = 0;
+        for (Segment s : segments) {
+            n += s.count;
+        }
+        return n;
+    }
+
+    synchronized int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    long getRecordsDropped() {
+        return recordsDropped;
+    }
+
+    synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d records in %d segments, %d written, %d dropped", directory.getName(), getSize(), getNumberOfSegments(), recordsWritten, recordsDropped);
+    }
+
+}
@@ -0,0 +1,934 @@
+package org.concord.iot;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-capacity ring buffer of (time, value) samples kept in two primitive arrays, so that appending a reading never allocates.
+ * When the buffer is full, the oldest sample is overwritten. Index 0 always refers to the oldest sample still in the store.
+ * <p>
+ * Statistics are maintained as samples come and go: monotonic deques give the minimum and maximum of the whole store in O(1),
+ * and summaries of fixed-size blocks of samples answer the same questions for a time range without visiting every sample in it.
+ * <p>
+ * Samples are also encoded as they arrive into {@link CompressedChunk}s of CHUNK_SIZE samples, which are kept in an archive after the
+ * ring has overwritten them, up to an archive capacity. The archive extends the history several times for a fraction of the memory of
+ * the ring. The indexed accessors only cover the ring; {@link #forEach(double, double, SampleVisitor)} streams the whole history.
+ * <p>
+ * Rollup tiers of 1 s, 1 min, and 1 h buckets are built as well, so that a graph of a long time range is drawn from the coarsest
+ * tier that still gives at least one bucket per pixel instead of from the samples.
+ * <p>
+ * A store has a single writer, the thread that samples its sensor, and any number of readers. The writer holds the write lock of a
+ * {@link StampedLock} only while it appends a sample, and readers read optimistically and validate what they have read, trying again
+ * a few times if a write has intervened. Only a reader that keeps colliding with writes falls back on the read lock. Sealed chunks are immutable
+ * and published as a new snapshot of the archive, so decoding them needs no validation at all, and the ring is copied out a page at
+ * a time for long scans. A slow reader, such as a repaint, therefore never holds up the writer for longer than copying a page.
+ *
+ * @author Charles Xie
+ */
+
+public class SensorDataStore {
+
+    public final static int DEFAULT_CAPACITY = 86400; // one day at one sample per second
+    public final static int CHUNK_SIZE = 1024;
+    private final static int BLOCK_SIZE = 256;
+    private final static int PAGE_SIZE = 1024;
+    private final static int OPTIMISTIC_READS = 8; // attempts before a reader falls back on the read lock
+    private final static double[] ROLLUP_WIDTHS = {1, 60, 3600}; // seconds
+    private final static int[] ROLLUP_CAPACITIES = {3600, 10080, 8760}; // an hour of seconds, a week of minutes, a year of hours
+
+    public interface SampleVisitor {
+        void visit(double time, double value);
+    }
+
+    // an immutable view of the archive, which the writer replaces as a whole when it seals or drops a chunk
+    private static class Archive {
+
+        final CompressedChunk[] chunks;
+        final long start; // sequence number of the first sample of the oldest chunk
+
+        Archive(CompressedChunk[] chunks, long start) {
+            this.chunks = chunks;
+            this.start = start;
+        }
+
+    }
+
+    // a copy of consecutive samples of the ring, so that a long scan can visit them without holding up the writer
+    private static class Page {
+
+        final double[] times = new double[PAGE_SIZE];
+        final double[] values = new double[PAGE_SIZE];
+        long start; // sequence number of the first sample
+        int count;
+
+    }
+
+    private final static Archive EMPTY_ARCHIVE = new Archive(new CompressedChunk[0], 0);
+
+    private final String name;
+    private final int capacity;
+    private final double[] times;
+    private final double[] values;
+    private final StampedLock lock = new StampedLock();
+    private int head; // physical index of the oldest sample
+    private int size;
+    private long added; // sequence number of the next sample, so that the sample with sequence number s sits at s % capacity
+
+    // monotonic deques of physical indices: values increase from the front of minDeque and decrease from the front of maxDeque
+    private final int[] minDeque;
+    private final int[] maxDeque;
+    private int minHead, minSize;
+    private int maxHead, maxSize;
+    private double sum;
+
+    // summaries of the blocks of BLOCK_SIZE consecutive sequence numbers, kept in a ring of their own
+    private final double[] blockMin;
+    private final double[] blockMax;
+    private final double[] blockSum;
+
+    // the archive of compressed chunks, which are consecutive in sequence numbers; the latest chunk may still overlap the ring
+    private final int archiveCapacity;
+    private final int chunkSize;
+    private volatile Archive archive = EMPTY_ARCHIVE;
+    private final CompressedChunk.Encoder encoder;
+    private long archivedCount; // number of samples only in the archive
+    private double archivedSum;
+    private double archiveMin = Double.NaN, archiveMax = Double.NaN;
+
+    private final RollupTier[] tiers;
+
+    private volatile SensorDataLog log;
+
+    public SensorDataStore(String name, int capacity) {
+        this(name, capacity, 0);
+    }
+
+    /**
+     * @param archiveCapacity the number of samples to keep in compressed form after the ring has overwritten them, zero for none
+     */
+    public SensorDataStore(String name, int capacity, int archiveCapacity) {
+        if (capacity < 1 || archiveCapacity < 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity + ", " + archiveCapacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.archiveCapacity = archiveCapacity;
+        chunkSize = Math.min(CHUNK_SIZE, capacity); // so that a sample is sealed in the archive before the ring overwrites it
+        encoder = archiveCapacity > 0 ? new CompressedChunk.Encoder() : null;
+        tiers = new RollupTier[ROLLUP_WIDTHS.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new RollupTier(ROLLUP_WIDTHS[i], ROLLUP_CAPACITIES[i]);
+        }
+        times = new double[capacity];
+        values = new double[capacity];
+        minDeque = new int[capacity];
+        maxDeque = new int[capacity];
+        int blocks = capacity / BLOCK_SIZE + 2;
+        blockMin = new double[blocks];
+        blockMax = new double[blocks];
+        blockSum = new double[blocks];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getArchiveCapacity() {
+        return archiveCapacity;
+    }
+
+    /**
+     * Every sample added from now on is also appended to the given log, or to none if it is null.
+     */
+    void setLog(SensorDataLog log) {
+        this.log = log;
+    }
+
+    SensorDataLog getLog() {
+        return log;
+    }
+
+    /**
+     * Appends a sample. Only one thread at a time may add samples to a store.
+     */
+    public void add(double time, double value) {
+        long stamp = lock.writeLock();
+        try {
+            append(time, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        SensorDataLog log = this.log;
+        if (log != null) {
+            log.append(time, value);
+        }
+    }
+
+    /**
+     * Appends the first count samples of the given arrays while holding the lock only once.
+     */
+    public void add(double[] times, double[] values, int count) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                append(times[i], values[i]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        SensorDataLog log = this.log;
+        if (log != null) {
+            for (int i = 0; i < count; i++) {
+                log.append(times[i], values[i]);
+            }
+        }
+    }
+
+    private void append(double time, double value) {
+        int k;
+        if (size < capacity) {
+            k = physicalIndex(size);
+            size++;
+        } else {
+            k = head;
+            head = head + 1 == capacity ? 0 : head + 1;
+            evict(k);
+        }
+        times[k] = time;
+        values[k] = value;
+        while (minSize > 0 && values[minDeque[dequeIndex(minHead, minSize - 1)]] >= value) {
+            minSize--;
+        }
+        minDeque[dequeIndex(minHead, minSize++)] = k;
+        while (maxSize > 0 && values[maxDeque[dequeIndex(maxHead, maxSize - 1)]] <= value) {
+            maxSize--;
+        }
+        maxDeque[dequeIndex(maxHead, maxSize++)] = k;
+        if (k == 0) { // refresh the running sum once per lap so that rounding errors from evictions cannot pile up
+            sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[physicalIndex(i)];
+            }
+        } else {
+            sum += value;
+        }
+        int b = (int) ((added / BLOCK_SIZE) % blockMin.length);
+        if (added % BLOCK_SIZE == 0) {
+            blockMin[b] = blockMax[b] = blockSum[b] = value;
+        } else {
+            if (value < blockMin[b]) blockMin[b] = value;
+            if (value > blockMax[b]) blockMax[b] = value;
+            blockSum[b] += value;
+        }
+        added++;
+        for (RollupTier tier : tiers) {
+            tier.add(time, value);
+        }
+        if (encoder != null) {
+            encoder.add(time, value);
+            if (encoder.size() == chunkSize) {
+                seal();
+            }
+        }
+    }
+
+    // remove the oldest sample, which sits at physical index k, from the running statistics before it is overwritten
+    private void evict(int k) {
+        if (minSize > 0 && minDeque[minHead] == k) {
+            minHead = minHead + 1 == capacity ? 0 : minHead + 1;
+            minSize--;
+        }
+        if (maxSize > 0 && maxDeque[maxHead] == k) {
+            maxHead = maxHead + 1 == capacity ? 0 : maxHead + 1;
+            maxSize--;
+        }
+        sum -= values[k];
+        if (encoder != null && added - size >= archive.start) { // the evicted sample is now only in the archive
+            archivedCount++;
+            archivedSum += values[k];
+        }
+    }
+
+    private void seal() {
+        CompressedChunk c = encoder.seal();
+        Archive a = archive;
+        long start = a.chunks.length == 0 ? added - c.size() : a.start;
+        // drop the oldest chunks beyond the archive capacity, but only those the ring no longer has
+        int drop = 0;
+        while ((long) (a.chunks.length + 1 - drop) * chunkSize > archiveCapacity && drop < a.chunks.length && start + a.chunks[drop].size() <= added - size) {
+            CompressedChunk old = a.chunks[drop++];
+            start += old.size();
+            archivedCount -= old.size();
+            archivedSum -= old.getSum();
+        }
+        CompressedChunk[] chunks = new CompressedChunk[a.chunks.length + 1 - drop];
+        System.arraycopy(a.chunks, drop, chunks, 0, chunks.length - 1);
+        chunks[chunks.length - 1] = c;
+        archive = new Archive(chunks, start);
+        if (drop > 0) {
+            archiveMin = archiveMax = Double.NaN;
+            for (CompressedChunk x : chunks) {
+                mergeArchiveRange(x);
+            }
+        } else {
+            mergeArchiveRange(c);
+        }
+    }
+
+    private void mergeArchiveRange(CompressedChunk c) {
+        if (!(c.getMin() >= archiveMin)) archiveMin = c.getMin();
+        if (!(c.getMax() <= archiveMax)) archiveMax = c.getMax();
+    }
+
+    private int dequeIndex(int dequeHead, int i) {
+        int k = dequeHead + i;
+        return k >= capacity ? k - capacity : k;
+    }
+
+    /*
+     * The readers below run their reads through these methods, which try them optimistically up to OPTIMISTIC_READS times, yielding to
+     * the writer in between, and only then under the read lock, so a reader blocks the writer only if it keeps colliding with writes. A read may see an inconsistent state while the writer is busy, so it must not loop on it or have
+     * side effects other than on its own results, and an exception that it throws then is discarded along with the results.
+     */
+
+    private int readInt(IntSupplier read) {
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    int result = read.getAsInt();
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.yield();
+        }
+        long stamp = lock.readLock();
+        try {
+            return read.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private long readLong(LongSupplier read) {
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    long result = read.getAsLong();
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.yield();
+        }
+        long stamp = lock.readLock();
+        try {
+            return read.getAsLong();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private double readDouble(DoubleSupplier read) {
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    double result = read.getAsDouble();
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.yield();
+        }
+        long stamp = lock.readLock();
+        try {
+            return read.getAsDouble();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private <T> T readObject(Supplier<T> read) {
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = read.get();
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (lock.validate(stamp)) {
+                        throw e;
+                    }
+                }
+            }
+            Thread.yield();
+        }
+        long stamp = lock.readLock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        return readInt(() -> size);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Finds the samples in the ring whose times fall in [t0, t1] by binary search. As the ring moves on when samples are added,
+     * the indices refer to it as it was when this method was called.
+     *
+     * @return the logical indices from (inclusive) and to (exclusive) of the samples in the range
+     */
+    public int[] rangeQuery(double t0, double t1) {
+        return readObject(() -> {
+            int from = lowerBound(t0);
+            return new int[]{from, Math.max(from, upperBound(t1))};
+        });
+    }
+
+    /**
+     * @return the logical index of the sample in the ring whose time is nearest to t, or -1 if the ring is empty
+     */
+    public int nearest(double t) {
+        return readInt(() -> {
+            if (size == 0) {
+                return -1;
+            }
+            int i = lowerBound(t);
+            if (i == size) {
+                return size - 1;
+            }
+            if (i > 0 && t - times[physicalIndex(i - 1)] <= times[physicalIndex(i)] - t) {
+                return i - 1;
+            }
+            return i;
+        });
+    }
+
+    /**
+     * Finds the sample in the ring nearest to the point (t, v) within the given radius, measuring distances in scaled coordinates,
+     * e.g., pixels. Only the samples within the radius in time are tested, which are located by binary search.
+     *
+     * @return the time and value of the nearest sample, or null if there is none within the radius
+     */
+    public double[] hitTest(double t, double v, double timeScale, double valueScale, double radius) {
+        return readObject(() -> {
+            double dt = radius / Math.abs(timeScale);
+            int to = upperBound(t + dt);
+            int found = -1;
+            double nearest = radius * radius;
+            for (int i = lowerBound(t - dt); i < to; i++) {
+                int k = physicalIndex(i);
+                double dx = (times[k] - t) * timeScale;
+                double dy = (values[k] - v) * valueScale;
+                double d = dx * dx + dy * dy;
+                if (d <= nearest) {
+                    nearest = d;
+                    found = k;
+                }
+            }
+            return found < 0 ? null : new double[]{times[found], values[found]};
+        });
+    }
+
+    /**
+     * Copies the latest samples, as many as fit in the given arrays, in time order.
+     *
+     * @return the number of samples copied
+     */
+    public int latest(double[] times, double[] values) {
+        return readInt(() -> {
+            int n = Math.min(size, Math.min(times.length, values.length));
+            for (int i = 0, j = size - n; i < n; i++, j++) {
+                int k = physicalIndex(j);
+                times[i] = this.times[k];
+                values[i] = this.values[k];
+            }
+            return n;
+        });
+    }
+
+    /**
+     * @return the number of samples that are only left in the archive, which come before index 0 of the ring
+     */
+    public long getArchivedSize() {
+        return readLong(() -> archivedCount);
+    }
+
+    /**
+     * Every sample gets a sequence number as it is added, starting from zero after the store is cleared. Unlike the logical indices
+     * of the ring, the sequence number of a sample does not change as older samples are dropped.
+     *
+     * @return the sequence number of the oldest sample still available, in the archive or in the ring
+     */
+    public long getFirstSequenceNumber() {
+        return readLong(() -> added - size - archivedCount);
+    }
+
+    /**
+     * @return the sequence number that the next sample will get
+     */
+    public long getNextSequenceNumber() {
+        return readLong(() -> added);
+    }
+
+    /**
+     * Copies the samples from the given sequence number on, as many as fit in the given arrays, decoding only the archived chunks
+     * that overlap them.
+     *
+     * @return the number of samples copied, which is zero if the sample of the given sequence number is no longer or not yet available
+     */
+    public int read(long from, double[] times, double[] values) {
+        return readInt(() -> {
+            long ringStart = added - size;
+            if (from < ringStart - archivedCount || from >= added) {
+                return 0;
+            }
+            int max = Math.min(times.length, values.length);
+            int n = 0;
+            long seq = from;
+            if (seq < ringStart) {
+                Archive a = archive;
+                long s = a.start;
+                for (CompressedChunk c : a.chunks) {
+                    if (s >= ringStart || n == max) {
+                        break;
+                    }
+                    if (s + c.size() > seq) {
+                        CompressedChunk.Decoder d = c.decoder();
+                        for (long j = s; j < ringStart && n < max && d.next(); j++) {
+                            if (j >= seq) {
+                                times[n] = d.getTime();
+                                values[n] = d.getValue();
+                                n++;
+                                seq++;
+                            }
+                        }
+                    }
+                    s += c.size();
+                }
+                if (seq < ringStart) {
+                    return n;
+                }
+            }
+            for (int i = (int) (seq - ringStart); i < size && n < max; i++) {
+                int k = physicalIndex(i);
+                times[n] = this.times[k];
+                values[n] = this.values[k];
+                n++;
+            }
+            return n;
+        });
+    }
+
+    /**
+     * @return the sequence number of the last sample at or before time t, or one less than the first sequence number if there is none
+     */
+    public long floorSequenceNumber(double t) {
+        return readLong(() -> {
+            long ringStart = added - size;
+            if (size > 0 && times[head] <= t) {
+                return ringStart + upperBound(t) - 1;
+            }
+            // the last archived chunk that starts at or before t, and before the ring, has the sample if there is one
+            Archive a = archive;
+            CompressedChunk chunk = null;
+            long chunkStart = 0;
+            long s = a.start;
+            for (CompressedChunk c : a.chunks) {
+                if (s >= ringStart || c.getFirstTime() > t) {
+                    break;
+                }
+                chunk = c;
+                chunkStart = s;
+                s += c.size();
+            }
+            long floor = ringStart - archivedCount - 1;
+            if (chunk != null) {
+                CompressedChunk.Decoder d = chunk.decoder();
+                for (long j = chunkStart; j < ringStart && d.next(); j++) {
+                    if (d.getTime() > t) {
+                        break;
+                    }
+                    floor = j;
+                }
+            }
+            return floor;
+        });
+    }
+
+    /**
+     * Streams the samples whose times fall in [t0, t1], decoding the archive first and then reading the ring, in time order.
+     * The visitor is called without any lock held. Samples that the ring drops while the visitor is slower than the writer are skipped.
+     */
+    public void forEach(double t0, double t1, SampleVisitor visitor) {
+        long[] bounds = readObject(() -> new long[]{added - size, added - size + lowerBound(t0), added});
+        long ringStart = bounds[0];
+        Archive a = archive;
+        long s = a.start;
+        for (CompressedChunk c : a.chunks) {
+            if (s >= ringStart || c.getFirstTime() > t1) {
+                break;
+            }
+            if (c.getLastTime() >= t0) {
+                CompressedChunk.Decoder d = c.decoder();
+                for (long j = s; j < ringStart && d.next(); j++) {
+                    double t = d.getTime();
+                    if (t >= t0 && t <= t1) {
+                        visitor.visit(t, d.getValue());
+                    }
+                }
+            }
+            s += c.size();
+        }
+        Page page = new Page();
+        for (long seq = bounds[1]; seq < bounds[2]; seq = page.start + page.count) {
+            copy(seq, bounds[2], page);
+            if (page.count == 0) {
+                break;
+            }
+            for (int i = 0; i < page.count; i++) {
+                if (page.times[i] > t1) {
+                    return;
+                }
+                visitor.visit(page.times[i], page.values[i]);
+            }
+        }
+    }
+
+    // copy the samples of the ring in [from, to) into the page, as many as fit, starting later if the ring has dropped some of them
+    private void copy(long from, long to, Page page) {
+        readInt(() -> {
+            long s = Math.max(from, added - size);
+            int n = (int) Math.max(0, Math.min(PAGE_SIZE, Math.min(to, added) - s));
+            for (int i = 0; i < n; i++) {
+                int k = (int) ((s + i) % capacity);
+                page.times[i] = times[k];
+                page.values[i] = values[k];
+            }
+            page.start = s;
+            page.count = n;
+            return n;
+        });
+    }
+
+    public double getTime(int i) {
+        return readDouble(() -> {
+            checkIndex(i);
+            return times[physicalIndex(i)];
+        });
+    }
+
+    public double getValue(int i) {
+        return readDouble(() -> {
+            checkIndex(i);
+            return values[physicalIndex(i)];
+        });
+    }
+
+    /**
+     * Reduces the samples whose times fall in [t0, t0 + columns * dt) to one column per interval of dt, recording the first,
+     * minimum, maximum, and last value of each column. This keeps every peak of a long recording while the caller only has to
+     * draw a few points per column. Columns without samples get NaN. The times are assumed to be nondecreasing.
+     * <p>
+     * If a rollup tier is adequate for the requested range and column width, the columns are filled from its buckets instead of the samples.
+     *
+     * @return the number of columns that have samples
+     */
+    public int envelope(double t0, double dt, int columns, double[] first, double[] min, double[] max, double[] last) {
+        long[] bounds = new long[3];
+        int filled = readInt(() -> {
+            Arrays.fill(first, 0, columns, Double.NaN);
+            Arrays.fill(min, 0, columns, Double.NaN);
+            Arrays.fill(max, 0, columns, Double.NaN);
+            Arrays.fill(last, 0, columns, Double.NaN);
+            RollupTier tier = selectTier(t0, dt);
+            if (tier != null) {
+                return tier.envelope(t0, dt, columns, first, min, max, last);
+            }
+            bounds[0] = added - size;
+            bounds[1] = added - size + lowerBound(t0);
+            bounds[2] = added;
+            return -1;
+        });
+        if (filled >= 0) {
+            return filled;
+        }
+        // from the samples: the archive is immutable, and the ring is copied out a page at a time
+        filled = 0;
+        double tmax = t0 + columns * dt;
+        long ringStart = bounds[0];
+        Archive a = archive;
+        long s = a.start;
+        for (CompressedChunk chunk : a.chunks) {
+            if (s >= ringStart || chunk.getFirstTime() >= tmax) {
+                break;
+            }
+            if (chunk.getLastTime() >= t0) {
+                CompressedChunk.Decoder d = chunk.decoder();
+                for (long j = s; j < ringStart && d.next(); j++) {
+                    double t = d.getTime();
+                    if (t >= t0) {
+                        filled += addToColumn(t0, dt, columns, t, d.getValue(), first, min, max, last);
+                    }
+                }
+            }
+            s += chunk.size();
+        }
+        Page page = new Page();
+        for (long seq = bounds[1]; seq < bounds[2]; seq = page.start + page.count) {
+            copy(seq, bounds[2], page);
+            if (page.count == 0) {
+                break;
+            }
+            for (int i = 0; i < page.count; i++) {
+                double t = page.times[i];
+                if (t >= tmax) {
+                    return filled;
+                }
+                filled += addToColumn(t0, dt, columns, t, page.values[i], first, min, max, last);
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * @return the width in seconds of the buckets that {@link #envelope(double, double, int, double[], double[], double[], double[])}
+     * uses for the given range and column width, or zero if it reads the samples
+     */
+    public double getResolution(double t0, double dt) {
+        return readDouble(() -> {
+            RollupTier tier = selectTier(t0, dt);
+            return tier == null ? 0 : tier.getWidth();
+        });
+    }
+
+    // the coarsest tier whose buckets are not wider than a column and that still reaches back as far as the samples in the range
+    private RollupTier selectTier(double t0, double dt) {
+        Archive a = archive;
+        double oldest = a.chunks.length == 0 ? (size > 0 ? times[head] : Double.NaN) : a.chunks[0].getFirstTime();
+        if (Double.isNaN(oldest)) {
+            return null;
+        }
+        double start = Math.max(t0, oldest);
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (tiers[i].getWidth() <= dt && tiers[i].covers(start)) {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+
+    // returns 1 if the sample is the first of its column
+    private static int addToColumn(double t0, double dt, int columns, double t, double v, double[] first, double[] min, double[] max, double[] last) {
+        int c = (int) ((t - t0) / dt);
+        if (c >= columns) { // beyond the right edge, or rounding at it
+            return 0;
+        }
+        last[c] = v;
+        if (Double.isNaN(first[c])) {
+            first[c] = min[c] = max[c] = v;
+            return 1;
+        }
+        if (v < min[c]) {
+            min[c] = v;
+        } else if (v > max[c]) {
+            max[c] = v;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the logical index of the first sample whose time is not less than t, or size if there is none
+     */
+    private int lowerBound(double t) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[physicalIndex(mid)] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the smallest value in the store, or NaN if it is empty
+     */
+    public double getMin() {
+        return readDouble(() -> {
+            double min = minSize == 0 ? Double.NaN : values[minDeque[minHead]];
+            return Double.isNaN(archiveMin) || archiveMin >= min ? min : archiveMin;
+        });
+    }
+
+    /**
+     * @return the largest value in the store, or NaN if it is empty
+     */
+    public double getMax() {
+        return readDouble(() -> {
+            double max = maxSize == 0 ? Double.NaN : values[maxDeque[maxHead]];
+            return Double.isNaN(archiveMax) || archiveMax <= max ? max : archiveMax;
+        });
+    }
+
+    /**
+     * @return the mean of the values in the store, or NaN if it is empty
+     */
+    public double getMean() {
+        return readDouble(() -> {
+            long n = size + archivedCount;
+            return n == 0 ? Double.NaN : (sum + archivedSum) / n;
+        });
+    }
+
+    /**
+     * Computes the statistics of the samples whose times fall in [t0, t1], visiting at most two partial blocks of samples in the ring
+     * and using the block summaries for the rest. Archived chunks that fall entirely within the range are taken from their summaries,
+     * and only those that straddle an end of it are decoded. The times are assumed to be nondecreasing.
+     *
+     * @return an array of the minimum, maximum, mean, and count of the values in the range, with NaN for the first three if it is empty
+     */
+    public double[] getStatistics(double t0, double t1) {
+        return readObject(() -> statistics(t0, t1));
+    }
+
+    private double[] statistics(double t0, double t1) {
+        double min = Double.NaN, max = Double.NaN, total = 0;
+        long count = 0;
+        long first = added - size;
+        Archive archive = this.archive;
+        long a = archive.start;
+        for (CompressedChunk c : archive.chunks) {
+            if (a >= first || c.getFirstTime() > t1) {
+                break;
+            }
+            if (a + c.size() <= first && c.getFirstTime() >= t0 && c.getLastTime() <= t1) {
+                if (!(c.getMin() >= min)) min = c.getMin();
+                if (!(c.getMax() <= max)) max = c.getMax();
+                total += c.getSum();
+                count += c.size();
+            } else if (c.getLastTime() >= t0) {
+                CompressedChunk.Decoder d = c.decoder();
+                for (long j = a; j < first && d.next(); j++) {
+                    double t = d.getTime();
+                    if (t >= t0 && t <= t1) {
+                        double v = d.getValue();
+                        if (!(v >= min)) min = v;
+                        if (!(v <= max)) max = v;
+                        total += v;
+                        count++;
+                    }
+                }
+            }
+            a += c.size();
+        }
+        long s = first + lowerBound(t0);
+        long end = first + upperBound(t1);
+        count += Math.max(0, end - s);
+        while (s < end) {
+            if (s % BLOCK_SIZE == 0 && s + BLOCK_SIZE <= end) {
+                int b = (int) ((s / BLOCK_SIZE) % blockMin.length);
+                if (!(blockMin[b] >= min)) min = blockMin[b]; // also true when min is still NaN
+                if (!(blockMax[b] <= max)) max = blockMax[b];
+                total += blockSum[b];
+                s += BLOCK_SIZE;
+            } else {
+                double v = values[(int) (s % capacity)];
+                if (!(v >= min)) min = v;
+                if (!(v <= max)) max = v;
+                total += v;
+                s++;
+            }
+        }
+        return new double[]{min, max, count == 0 ? Double.NaN : total / count, count};
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            head = 0;
+            size = 0;
+            added = 0;
+            minHead = minSize = 0;
+            maxHead = maxSize = 0;
+            sum = 0;
+            if (encoder != null) {
+                encoder.seal(); // discard the samples of the open chunk
+            }
+            archive = EMPTY_ARCHIVE;
+            archivedCount = 0;
+            archivedSum = 0;
+            archiveMin = archiveMax = Double.NaN;
+            for (RollupTier tier : tiers) {
+                tier.clear();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the logical index of the first sample whose time is greater than t, or size if there is none
+     */
+    private int upperBound(double t) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[physicalIndex(mid)] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int physicalIndex(int i) {
+        int k = head + i;
+        return k >= capacity ? k - capacity : k;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+}
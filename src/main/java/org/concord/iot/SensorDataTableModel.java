@@ -0,0 +1,165 @@
+package org.concord.iot;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A read-only table of the samples of one or more channels that reads them lazily from the stores, a page at a time, so that a view
+ * of a long recording opens at once and only the rows on screen are ever decoded. There is one row per sample of the first channel,
+ * identified by its sequence number, so rows stay put as new samples are appended. The other channels are aligned by time: each row
+ * shows their latest sample at or before the time of the row. Rows whose samples have been dropped from the store show a dash.
+ *
+ * @author Charles Xie
+ */
+
+class SensorDataTableModel extends AbstractTableModel {
+
+    private final static int PAGE_SIZE = 1024;
+    private final static String MISSING = "-";
+
+    private final String[] header;
+    private final SensorDataStore[] stores;
+    private final Page[] pages;
+    private long base; // the sequence number of the sample of the first channel in row 0
+    private int rowCount;
+
+    // a window of consecutive samples of a channel
+    private static class Page {
+        final double[] times = new double[PAGE_SIZE];
+        final double[] values = new double[PAGE_SIZE];
+        long start;
+        int count;
+
+        boolean contains(long seq) {
+            return seq >= start && seq < start + count;
+        }
+    }
+
+    /**
+     * @param header the names of the time column and then of the channels
+     */
+    SensorDataTableModel(String[] header, SensorDataStore... stores) {
+        if (header.length != stores.length + 1) {
+            throw new IllegalArgumentException("Expected " + (stores.length + 1) + " column names: " + header.length);
+        }
+        this.header = header;
+        this.stores = stores;
+        pages = new Page[stores.length];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new Page();
+        }
+        base = stores[0].getFirstSequenceNumber();
+        rowCount = (int) Math.min(Integer.MAX_VALUE, stores[0].getNextSequenceNumber() - base);
+    }
+
+    /**
+     * Appends the rows of the samples that have arrived since the last refresh, or starts over if the stores have been cleared.
+     */
+    void refresh() {
+        long next = stores[0].getNextSequenceNumber();
+        if (next < base + rowCount) { // cleared
+            for (Page p : pages) {
+                p.count = 0;
+            }
+            base = stores[0].getFirstSequenceNumber();
+            rowCount = (int) Math.min(Integer.MAX_VALUE, next - base);
+            fireTableDataChanged();
+        } else if (next > base + rowCount) {
+            int oldCount = rowCount;
+            rowCount = (int) Math.min(Integer.MAX_VALUE, next - base);
+            if (rowCount > oldCount) {
+                fireTableRowsInserted(oldCount, rowCount - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the time of the given row, or NaN if its sample has been dropped from the store
+     */
+    double getTime(int row) {
+        Page p = load(0, base + row);
+        return p == null ? Double.NaN : p.times[(int) (base + row - p.start)];
+    }
+
+    String[] getChannelNames() {
+        String[] names = new String[stores.length];
+        System.arraycopy(header, 1, names, 0, names.length);
+        return names;
+    }
+
+    SensorDataStore[] getStores() {
+        return stores.clone();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return header.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return header[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        long seq = base + row;
+        Page p = load(0, seq);
+        if (p == null) {
+            return MISSING;
+        }
+        int i = (int) (seq - p.start);
+        if (column == 0) {
+            return p.times[i];
+        }
+        if (column == 1) {
+            return p.values[i];
+        }
+        int channel = column - 1;
+        double t = p.times[i];
+        Page q = pages[channel];
+        if (q.count > 0 && q.times[0] <= t && t < q.times[q.count - 1]) { // the sample is on the page, so the store is not searched
+            return q.values[upperBound(q, t) - 1];
+        }
+        long floor = stores[channel].floorSequenceNumber(t);
+        q = load(channel, floor);
+        return q == null ? MISSING : q.values[(int) (floor - q.start)];
+    }
+
+    // the index of the first sample on the page whose time is greater than t
+    private static int upperBound(Page p, double t) {
+        int lo = 0, hi = p.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (p.times[mid] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // the page of the given channel that holds the given sample, loading it around the sample if necessary, or null if it is not available
+    private Page load(int channel, long seq) {
+        Page p = pages[channel];
+        if (p.contains(seq)) {
+            return p;
+        }
+        long start = channel == 0 ? seq - seq % PAGE_SIZE : seq - PAGE_SIZE / 2; // the other channels are read around the row
+        start = Math.max(start, stores[channel].getFirstSequenceNumber());
+        p.start = start;
+        p.count = stores[channel].read(start, p.times, p.values);
+        return p.contains(seq) ? p : null;
+    }
+
+}
@@ -0,0 +1,206 @@
+package org.concord.iot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples each sensor on its own fixed-rate schedule so that a slow device cannot delay the others. Every channel
+ * keeps track of its deadlines: if a run starts a whole period or more behind, it is skipped and counted as a missed
+ * deadline instead of being fired back-to-back to catch up.
+ * <p>
+ * By default a scheduler has a thread for each of its channels. Many schedulers, such as those of the simulated
+ * boards of a load test, can share one executor instead.
+ *
+ * @author Charles Xie
+ */
+
+class SensorScheduler {
+
+    interface Sampler {
+        void sample() throws Exception;
+    }
+
+    static class Channel {
+
+        private final String name;
+        private final Sampler sampler;
+        private volatile int interval; // milliseconds, zero means following the default interval
+        private ScheduledFuture<?> future;
+        private volatile long executions;
+        private volatile long missedDeadlines;
+        private volatile long lastDuration; // nanoseconds
+        private volatile long maxDuration; // nanoseconds
+
+        private Channel(String name, int interval, Sampler sampler) {
+            this.name = name;
+            this.interval = interval;
+            this.sampler = sampler;
+        }
+
+        // the deadline is owned by the schedule rather than the channel, so a run that is still finishing after rescheduling cannot disturb the new one
+        private void execute(long period, long[] deadline) {
+            synchronized (this) { // runs one at a time, as the first run of a new schedule may start while the last run of the old one is finishing
+                long now = System.nanoTime();
+                long late = now - deadline[0];
+                deadline[0] += period;
+                if (late >= period) {
+                    missedDeadlines++;
+                    return;
+                }
+                try {
+                    sampler.sample();
+                } catch (Exception e) { // an exception would otherwise cancel all subsequent runs silently
+                    e.printStackTrace();
+                }
+                lastDuration = System.nanoTime() - now;
+                if (lastDuration > maxDuration) {
+                    maxDuration = lastDuration;
+                }
+                executions++;
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getExecutions() {
+            return executions;
+        }
+
+        long getMissedDeadlines() {
+            return missedDeadlines;
+        }
+
+        double getLastDuration() { // milliseconds
+            return lastDuration * 1.0e-6;
+        }
+
+        double getMaxDuration() { // milliseconds
+            return maxDuration * 1.0e-6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d runs, %d missed deadlines, last %.2f ms, max %.2f ms", name, executions, missedDeadlines, getLastDuration(), getMaxDuration());
+        }
+
+    }
+
+    private final Map<String, Channel> channels = new LinkedHashMap<>();
+    private ScheduledExecutorService executor;
+    private final boolean sharedExecutor;
+    private boolean started;
+    private volatile int defaultInterval;
+
+    SensorScheduler(int defaultInterval) {
+        this(defaultInterval, null);
+    }
+
+    /**
+     * @param executor an executor shared with other schedulers, which is not shut down with this one, or null for one of its own
+     */
+    SensorScheduler(int defaultInterval, ScheduledExecutorService executor) {
+        this.defaultInterval = defaultInterval;
+        this.executor = executor;
+        sharedExecutor = executor != null;
+    }
+
+    synchronized void addChannel(String name, int interval, Sampler sampler) {
+        if (started) {
+            throw new IllegalStateException("Channels must be added before the scheduler starts: " + name);
+        }
+        channels.put(name, new Channel(name, interval, sampler));
+    }
+
+    synchronized void start() {
+        if (started || channels.isEmpty()) {
+            return;
+        }
+        started = true;
+        if (executor == null) {
+            executor = Executors.newScheduledThreadPool(channels.size()); // one thread per channel so that no device waits for another
+        }
+        for (Channel c : channels.values()) {
+            schedule(c);
+        }
+    }
+
+    synchronized void shutdown() {
+        if (!started) {
+            return;
+        }
+        if (sharedExecutor) {
+            for (Channel c : channels.values()) {
+                c.future.cancel(false);
+            }
+        } else {
+            executor.shutdownNow();
+        }
+    }
+
+    private void schedule(Channel c) {
+        if (c.future != null) {
+            c.future.cancel(false);
+        }
+        long period = TimeUnit.MILLISECONDS.toNanos(getInterval(c));
+        long[] deadline = {System.nanoTime()};
+        c.future = executor.scheduleAtFixedRate(() -> c.execute(period, deadline), 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    private int getInterval(Channel c) {
+        return c.interval > 0 ? c.interval : defaultInterval;
+    }
+
+    synchronized void setDefaultInterval(int defaultInterval) {
+        if (this.defaultInterval == defaultInterval) {
+            return;
+        }
+        this.defaultInterval = defaultInterval;
+        if (started) {
+            for (Channel c : channels.values()) {
+                if (c.interval <= 0) {
+                    schedule(c);
+                }
+            }
+        }
+    }
+
+    int getDefaultInterval() {
+        return defaultInterval;
+    }
+
+    /**
+     * @param interval the sampling interval of the channel in milliseconds, or zero to follow the default interval
+     */
+    synchronized void setInterval(String name, int interval) {
+        Channel c = channels.get(name);
+        if (c == null || c.interval == interval) {
+            return;
+        }
+        c.interval = interval;
+        if (started) {
+            schedule(c);
+        }
+    }
+
+    synchronized int getInterval(String name) {
+        Channel c = channels.get(name);
+        return c == null ? -1 : getInterval(c);
+    }
+
+    synchronized Channel getChannel(String name) {
+        return channels.get(name);
+    }
+
+    synchronized List<Channel> getChannels() {
+        return new ArrayList<>(channels.values());
+    }
+
+}
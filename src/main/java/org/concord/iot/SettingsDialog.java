@@ -30,6 +30,7 @@ class SettingsDialog extends JDialog {
 
         final JTextField userNameField = new JTextField(workbench.user.getName());
         final JTextField sensorDataCollectionIntervalField = new JTextField(workbench.getSensorDataCollectionInterval() + "", 12);
+        final JTextField uplinkFlushIntervalField = new JTextField(workbench.getUplinkFlushInterval() + "", 12);
         final JTextField numberOfLedsField = new JTextField(workbench.getNumberOfRgbLeds() + "", 12);
 
         final ActionListener okListener = e -> {
@@ -49,7 +50,7 @@ class SettingsDialog extends JDialog {
                 }
                 if (n > 0) {
                     workbench.setNumberOfRgbLeds(n);
-                    workbench.boardView.repaint();
+                    workbench.boardView.requestRepaint();
                 } else {
                     JOptionPane.showMessageDialog(SettingsDialog.this, "Must be positive: " + s, "Illegal Input", JOptionPane.ERROR_MESSAGE);
                 }
@@ -68,6 +69,20 @@ class SettingsDialog extends JDialog {
                     JOptionPane.showMessageDialog(SettingsDialog.this, "Must be positive: " + s, "Illegal Input", JOptionPane.ERROR_MESSAGE);
                 }
             }
+            s = uplinkFlushIntervalField.getText();
+            if (s != null && !s.trim().equals("")) {
+                int n = 0;
+                try {
+                    n = Integer.parseInt(s);
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(SettingsDialog.this, s + " cannot be parsed!", "Format Error", JOptionPane.ERROR_MESSAGE);
+                }
+                if (n > 0) {
+                    workbench.setUplinkFlushInterval(n);
+                } else {
+                    JOptionPane.showMessageDialog(SettingsDialog.this, "Must be positive: " + s, "Illegal Input", JOptionPane.ERROR_MESSAGE);
+                }
+            }
             dispose();
         };
 
@@ -81,12 +96,17 @@ class SettingsDialog extends JDialog {
         panel.add(sensorDataCollectionIntervalField);
         panel.add(new JLabel("Milliseconds"));
 
+        // interval between batched updates sent to the cloud (milliseconds)
+        panel.add(new JLabel("Cloud Update Interval: "));
+        panel.add(uplinkFlushIntervalField);
+        panel.add(new JLabel("Milliseconds"));
+
         // RGB LED number
         panel.add(new JLabel("Number of APA RGB LEDs: "));
         panel.add(numberOfLedsField);
         panel.add(new JLabel());
 
-        SpringUtilities.makeCompactGrid(panel, 3, 3, 8, 8, 8, 8);
+        SpringUtilities.makeCompactGrid(panel, 4, 3, 8, 8, 8, 8);
 
         final JPanel buttonPanel = new JPanel();
         buttonPanel.setLayout(new FlowLayout(FlowLayout.RIGHT));
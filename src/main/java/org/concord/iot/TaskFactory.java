@@ -1,7 +1,8 @@
 package org.concord.iot;
 
+import org.concord.iot.drivers.APA102;
+
 import java.awt.*;
-import java.util.Arrays;
 
 /**
  * @author Charles Xie
@@ -42,6 +43,10 @@ class TaskFactory {
         rippleEffectApaTask.setStopped(true);
     }
 
+    private static Color randomColor() {
+        return new Color((int) (255 * Math.random()), (int) (255 * Math.random()), (int) (255 * Math.random()));
+    }
+
     private void createTasks() {
 
         rotateServoTask = new Task("Rotate Servo", workbench);
@@ -130,191 +135,233 @@ class TaskFactory {
             }
         });
 
-        blinkApaTask = new Task("Blink All", workbench);
-        blinkApaTask.setRunnable(() -> {
-            while (true) {
-                Color c = new Color((int) (Math.random() * 255), (int) (Math.random() * 255), (int) (Math.random() * 255));
-                try {
-                    workbench.apa102.setColorForAll(c);
-                    if (workbench.boardView != null) {
-                        workbench.boardView.setColorForAllLeds(c);
-                    }
-                    Thread.sleep(500);
-                    workbench.apa102.setColorForAll(Color.BLACK);
-                    if (workbench.boardView != null) {
-                        workbench.boardView.setColorForAllLeds(Color.BLACK);
-                    }
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        LedAnimator animator = workbench.ledAnimator;
+
+        blinkApaTask = new AnimationTask("Blink All", workbench, animator, new LedAnimator.Effect() {
+
+            private boolean on;
+            private Color color;
+
+            @Override
+            public int getStepInterval() {
+                return 500;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                on = true;
+                color = randomColor();
+            }
+
+            @Override
+            public void step() {
+                on = !on;
+                if (on) {
+                    color = randomColor();
                 }
-                if (blinkApaTask.isStopped()) {
-                    break;
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                Color c = on ? color : Color.BLACK;
+                for (int i = 0; i <= apa102.getNumberOfPixels(); i++) {
+                    apa102.setPixel(i, c.getRed(), c.getGreen(), c.getBlue());
                 }
             }
+
         });
 
-        movingRainbowApaTask = new Task("Moving Rainbows", workbench);
-        movingRainbowApaTask.setRunnable(() -> {
-            workbench.apa102.resetShift();
-            while (true) {
-                synchronized (lock) {
-                    workbench.apa102.moveRainbow(1);
-                    workbench.apa102.shift(0.01f);
-                    workbench.setLedColorsOnBoardView();
-                }
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                }
-                if (movingRainbowApaTask.isStopped()) {
-                    break;
-                }
+        movingRainbowApaTask = new AnimationTask("Moving Rainbows", workbench, animator, new LedAnimator.Effect() {
+
+            @Override
+            public int getStepInterval() {
+                return 10;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                workbench.apa102.resetShift();
+            }
+
+            @Override
+            public void step() {
+                workbench.apa102.shift(0.01f);
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                apa102.renderRainbow(1);
             }
+
         });
 
-        randomColorsApaTask = new Task("Random Colors", workbench);
-        randomColorsApaTask.setRunnable(() -> {
-            byte[][] data = new byte[workbench.getNumberOfRgbLeds()][4];
-            while (true) {
-                synchronized (lock) {
-                    for (int i = 0; i < data.length; i++) {
-                        data[i][0] = (byte) (255 * Math.random());
-                        data[i][1] = (byte) (255 * Math.random());
-                        data[i][2] = (byte) (255 * Math.random());
-                    }
-                    workbench.apa102.setData(data);
-                    workbench.setLedColorsOnBoardView();
-                }
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ex) {
+        randomColorsApaTask = new AnimationTask("Random Colors", workbench, animator, new LedAnimator.Effect() {
+
+            private byte[][] data;
+
+            @Override
+            public int getStepInterval() {
+                return 500;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                data = new byte[numberOfPixels][3];
+                step();
+            }
+
+            @Override
+            public void step() {
+                for (int i = 0; i < data.length; i++) {
+                    data[i][0] = (byte) (255 * Math.random());
+                    data[i][1] = (byte) (255 * Math.random());
+                    data[i][2] = (byte) (255 * Math.random());
                 }
-                if (randomColorsApaTask.isStopped()) {
-                    break;
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                for (int i = 0; i < data.length; i++) {
+                    apa102.setPixel(i, data[i][0] & 0xFF, data[i][1] & 0xFF, data[i][2] & 0xFF);
                 }
             }
+
         });
 
-        bouncingDotApaTask = new Task("Bouncing Dot", workbench);
-        bouncingDotApaTask.setRunnable(() -> {
-            byte[][] data = new byte[workbench.getNumberOfRgbLeds()][4];
-            bouncingDotApaTask.setIndex(0);
-            boolean reverse = false;
-            while (true) {
-                synchronized (lock) {
-                    int index = bouncingDotApaTask.getIndex();
-                    for (int i = 0; i < data.length; i++) {
-                        if (i == index) {
-                            data[index][0] = (byte) 255;
-                            data[index][1] = (byte) 0;
-                            data[index][2] = (byte) 0;
-                        } else {
-                            Arrays.fill(data[i], (byte) 0);
-                        }
-                    }
-                    workbench.apa102.setData(data);
-                    workbench.setLedColorsOnBoardView();
-                }
-                try {
-                    Thread.sleep(5);
-                } catch (InterruptedException ex) {
-                }
-                workbench.buzz(0);
+        bouncingDotApaTask = new AnimationTask("Bouncing Dot", workbench, animator, new LedAnimator.Effect() {
+
+            private int length;
+            private int index;
+            private boolean reverse;
+            private boolean bounced;
+
+            @Override
+            public int getStepInterval() {
+                return 5;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                length = numberOfPixels;
+                index = 0;
+                reverse = false;
+                bounced = false;
+            }
+
+            @Override
+            public void step() {
                 if (reverse) {
-                    bouncingDotApaTask.addToIndex(-1);
-                    if (bouncingDotApaTask.getIndex() < 0) {
-                        bouncingDotApaTask.setIndex(0);
+                    index--;
+                    if (index < 0) {
+                        index = 0;
                         reverse = false;
-                        workbench.buzz(1);
+                        bounced = true;
                     }
                 } else {
-                    bouncingDotApaTask.addToIndex(1);
-                    if (bouncingDotApaTask.getIndex() >= data.length) {
-                        bouncingDotApaTask.setIndex(data.length - 1);
+                    index++;
+                    if (index >= length) {
+                        index = length - 1;
                         reverse = true;
-                        workbench.buzz(1);
+                        bounced = true;
                     }
                 }
-                if (bouncingDotApaTask.isStopped()) {
-                    break;
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                for (int i = 0; i < length; i++) {
+                    apa102.setPixel(i, i == index ? 255 : 0, 0, 0);
                 }
+                workbench.buzz(bounced ? 1 : 0); // a short click for the frame that shows the bounce
+                bounced = false;
             }
+
         });
 
-        movingTrainsApaTask = new Task("Moving Trains", workbench);
-        movingTrainsApaTask.setRunnable(() -> {
-            byte[][] data = new byte[workbench.getNumberOfRgbLeds()][4];
-            int trainLength = 7;
-            int interval = 10;
-            int m = 20;
-            Color c = Color.RED;
-            movingTrainsApaTask.setIndex(0);
-            while (true) {
-                synchronized (lock) {
-                    int firstIndexOfTrain = movingTrainsApaTask.getIndex();
-                    int lastIndexOfTrain = firstIndexOfTrain - trainLength;
-                    boolean onTrain;
-                    int max = Math.round((float) (m * data.length) / (float) (trainLength + interval));
-                    for (int i = 0; i < data.length; i++) {
-                        onTrain = false;
-                        Arrays.fill(data[i], (byte) 0);
-                        for (int k = 0; k < max; k++) {
-                            if (i <= firstIndexOfTrain - (trainLength + interval) * k && i > lastIndexOfTrain - (trainLength + interval) * k) {
-                                onTrain = true;
-                                break;
-                            }
-                        }
-                        if (onTrain) {
-                            data[i][0] = (byte) c.getRed();
-                            data[i][1] = (byte) c.getGreen();
-                            data[i][2] = (byte) c.getBlue();
+        movingTrainsApaTask = new AnimationTask("Moving Trains", workbench, animator, new LedAnimator.Effect() {
+
+            private final int trainLength = 7;
+            private final int interval = 10;
+            private final int m = 20;
+            private int length;
+            private int index;
+            private Color color;
+
+            @Override
+            public int getStepInterval() {
+                return 50;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                length = numberOfPixels;
+                index = 0;
+                color = Color.RED;
+            }
+
+            @Override
+            public void step() {
+                index++;
+                if (index >= m * length + trainLength) {
+                    index = 0;
+                    color = randomColor();
+                }
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                int firstIndexOfTrain = index;
+                int lastIndexOfTrain = firstIndexOfTrain - trainLength;
+                int max = Math.round((float) (m * length) / (float) (trainLength + interval));
+                for (int i = 0; i < length; i++) {
+                    boolean onTrain = false;
+                    for (int k = 0; k < max; k++) {
+                        if (i <= firstIndexOfTrain - (trainLength + interval) * k && i > lastIndexOfTrain - (trainLength + interval) * k) {
+                            onTrain = true;
+                            break;
                         }
                     }
-                    workbench.apa102.setData(data);
-                    workbench.setLedColorsOnBoardView();
-                }
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException ex) {
-                }
-                movingTrainsApaTask.addToIndex(1);
-                if (movingTrainsApaTask.getIndex() >= m * data.length + trainLength) {
-                    movingTrainsApaTask.setIndex(0);
-                    c = new Color((int) (255 * Math.random()), (int) (255 * Math.random()), (int) (255 * Math.random()));
-                }
-                if (movingTrainsApaTask.isStopped()) {
-                    break;
+                    if (onTrain) {
+                        apa102.setPixel(i, color.getRed(), color.getGreen(), color.getBlue());
+                    } else {
+                        apa102.setPixel(i, 0, 0, 0);
+                    }
                 }
             }
+
         });
 
-        rippleEffectApaTask = new Task("Ripple Effect", workbench);
-        rippleEffectApaTask.setRunnable(() -> {
-            byte[][] data = new byte[workbench.getNumberOfRgbLeds()][4];
-            double wavelength = 20;
-            double speed = 1;
-            rippleEffectApaTask.setIndex(0);
-            while (true) {
-                synchronized (lock) {
-                    int time = rippleEffectApaTask.getIndex();
-                    for (int i = 0; i < data.length; i++) {
-                        data[i][0] = (byte) Math.min(255, 128 + 128 * Math.sin(2.0 * Math.PI * (i + (i < data.length / 2 ? speed : -speed) * time) / wavelength));
-                        data[i][1] = (byte) 0;
-                        data[i][2] = (byte) (255 - data[i][0]);
-                    }
-                    workbench.apa102.setData(data);
-                    workbench.setLedColorsOnBoardView();
-                }
-                try {
-                    Thread.sleep(20);
-                } catch (InterruptedException ex) {
-                }
-                rippleEffectApaTask.addToIndex(1);
-                if (rippleEffectApaTask.isStopped()) {
-                    break;
+        rippleEffectApaTask = new AnimationTask("Ripple Effect", workbench, animator, new LedAnimator.Effect() {
+
+            private final double wavelength = 20;
+            private final double speed = 1;
+            private int length;
+            private int time;
+
+            @Override
+            public int getStepInterval() {
+                return 20;
+            }
+
+            @Override
+            public void reset(int numberOfPixels) {
+                length = numberOfPixels;
+                time = 0;
+            }
+
+            @Override
+            public void step() {
+                time++;
+            }
+
+            @Override
+            public void render(APA102 apa102) {
+                for (int i = 0; i < length; i++) {
+                    int red = (byte) Math.min(255, 128 + 128 * Math.sin(2.0 * Math.PI * (i + (i < length / 2 ? speed : -speed) * time) / wavelength)) & 0xFF;
+                    apa102.setPixel(i, red, 0, 255 - red);
                 }
             }
+
         });
 
     }
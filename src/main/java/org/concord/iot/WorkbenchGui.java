@@ -126,7 +126,7 @@ class WorkbenchGui implements GraphListener, ThreadPoolListener {
         ButtonGroup boardsButtonGroup = new ButtonGroup();
         miRainbowHAT.addItemListener(e -> {
             workbench.setBoardType(IoTWorkbench.RAINBOW_HAT);
-            workbench.boardView.repaint();
+            workbench.boardView.requestRepaint();
             final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
             pref.putInt("board_type", IoTWorkbench.RAINBOW_HAT);
         });
@@ -135,7 +135,7 @@ class WorkbenchGui implements GraphListener, ThreadPoolListener {
 
         miSensorHub.addItemListener(e -> {
             workbench.setBoardType(IoTWorkbench.SENSOR_HUB);
-            workbench.boardView.repaint();
+            workbench.boardView.requestRepaint();
             final Preferences pref = Preferences.userNodeForPackage(IoTWorkbench.class);
             pref.putInt("board_type", IoTWorkbench.SENSOR_HUB);
         });
@@ -176,7 +176,7 @@ class WorkbenchGui implements GraphListener, ThreadPoolListener {
         JMenuItem clearDataStoresMenuItem = new JMenuItem("Clear Data Stores");
         clearDataStoresMenuItem.addActionListener(e -> {
             workbench.clearDataStores();
-            workbench.boardView.repaint();
+            workbench.boardView.requestRepaint();
         });
         sensorsMenu.add(clearDataStoresMenuItem);
 
@@ -2,11 +2,14 @@ package org.concord.iot.drivers;
 
 import com.pi4j.io.spi.SpiChannel;
 import com.pi4j.io.spi.SpiDevice;
-import com.pi4j.io.spi.SpiFactory;
 
 import java.awt.*;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * APA 102 protocol: Start frame + LED1 + .... + LED7 + End frame
@@ -23,39 +26,65 @@ import java.util.Arrays;
 
 public class APA102 {
 
-    private final static byte[] START_FRAME = new byte[]{0, 0, 0, 0};
-    private final static byte[] END_FRAME = new byte[]{1, 1, 1, 1};
+    private final static int START_FRAME_LENGTH = 4; // the start frame is [0x00, 0x00, 0x00, 0x00]
+    private final static byte END_FRAME_BYTE = 1;
 
     private int numberOfPixels = 7;
     private SpiDevice spi;
     private byte brightness = 1; // from 0 to 31 (0 is completely out)
-    private byte[][] data; // keep the data as the state of this driver
     private float shift;
 
+    // the whole SPI transfer (start frame, LED frames, end frame) is laid out in one array, so a frame goes out in a single write
+    private byte[] backBuffer; // rendered into by the setters, and kept as the state of this driver
+    private byte[] frontBuffer; // being shifted out
+    private ExecutorService writer;
+    private Future<?> pendingWrite;
+    private volatile long framesWritten;
+
     public APA102(int numberOfPixels) {
+        this(Hardware.getDefault(), numberOfPixels);
+    }
+
+    public APA102(Hardware hardware, int numberOfPixels) {
         this.numberOfPixels = numberOfPixels;
         try {
-            spi = SpiFactory.getInstance(SpiChannel.CS0, SpiDevice.DEFAULT_SPI_SPEED, SpiDevice.DEFAULT_SPI_MODE);
+            spi = hardware.openSpiDevice(SpiChannel.CS0, SpiDevice.DEFAULT_SPI_SPEED, SpiDevice.DEFAULT_SPI_MODE);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        data = new byte[numberOfPixels + 1][4];
-        for (int i = 0; i < data.length; i++) {
+        backBuffer = createFrame(numberOfPixels);
+        frontBuffer = createFrame(numberOfPixels);
+        for (int i = 0; i <= numberOfPixels; i++) {
             updateData(i, Color.BLACK);
         }
     }
 
-    public void setNumberOfPixels(int n) {
-        byte[][] a = new byte[n + 1][4];
-        for (int i = 0; i < a.length; i++) {
-            if (i < data.length) {
-                System.arraycopy(data[i], 0, a[i], 0, 4);
-            } else {
-                Arrays.fill(a[i], (byte) 0);
-            }
+    /*
+     * The end frame must supply at least one clock edge for every two LEDs to push the data through the whole strip.
+     * The data array has one extra LED frame (numberOfPixels + 1) as before, which also contributes clock edges.
+     */
+    private static byte[] createFrame(int numberOfPixels) {
+        int endFrameLength = Math.max(4, (numberOfPixels + 15) / 16);
+        byte[] frame = new byte[START_FRAME_LENGTH + 4 * (numberOfPixels + 1) + endFrameLength];
+        Arrays.fill(frame, frame.length - endFrameLength, frame.length, END_FRAME_BYTE);
+        return frame;
+    }
+
+    private static int offset(int i) {
+        return START_FRAME_LENGTH + 4 * i;
+    }
+
+    public synchronized void setNumberOfPixels(int n) {
+        byte[] a = createFrame(n);
+        int m = Math.min(n, numberOfPixels) + 1;
+        System.arraycopy(backBuffer, offset(0), a, offset(0), 4 * m);
+        for (int i = m; i <= n; i++) {
+            a[offset(i)] = (byte) (0b11100000 + brightness);
         }
         setColorForAll(Color.BLACK);
-        data = a;
+        awaitCommit();
+        backBuffer = a;
+        frontBuffer = createFrame(n);
         numberOfPixels = n;
         writeData();
     }
@@ -65,22 +94,80 @@ public class APA102 {
     }
 
     private void writeData() {
-        try {
-            spi.write(START_FRAME); // start frame
-            for (int i = 0; i < data.length; i++) {
-                spi.write(data[i]);
+        commit();
+    }
+
+    /**
+     * Sends the rendered frame to the strip. The buffers are swapped and the frame is shifted out by a background
+     * thread, so the caller can render the next frame right away. If the previous frame is still being shifted out,
+     * this method waits for it first.
+     */
+    public synchronized void commit() {
+        awaitCommit();
+        byte[] a = frontBuffer;
+        frontBuffer = backBuffer;
+        backBuffer = a;
+        System.arraycopy(frontBuffer, 0, backBuffer, 0, backBuffer.length); // keep rendering from the current state
+        if (spi == null) {
+            return;
+        }
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "APA102 Writer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        final byte[] frame = frontBuffer;
+        pendingWrite = writer.submit(() -> {
+            try {
+                spi.write(frame);
+                framesWritten++;
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            spi.write(END_FRAME); // end frame
-        } catch (IOException e) {
+        });
+    }
+
+    /**
+     * Waits until the last committed frame has been shifted out.
+     */
+    public synchronized void awaitCommit() {
+        if (pendingWrite == null) {
+            return;
+        }
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
             e.printStackTrace();
         }
+        pendingWrite = null;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
     }
 
     private void updateData(int i, Color color) {
-        data[i][0] = (byte) (0b11100000 + brightness); // brightness control
-        data[i][1] = (byte) color.getBlue();
-        data[i][2] = (byte) color.getGreen();
-        data[i][3] = (byte) color.getRed();
+        updateData(i, color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    private void updateData(int i, int red, int green, int blue) {
+        int k = offset(i);
+        backBuffer[k] = (byte) (0b11100000 + brightness); // brightness control
+        backBuffer[k + 1] = (byte) blue;
+        backBuffer[k + 2] = (byte) green;
+        backBuffer[k + 3] = (byte) red;
+    }
+
+    /**
+     * Renders a pixel into the back buffer without sending it. Call {@link #commit()} when the frame is complete.
+     */
+    public synchronized void setPixel(int i, int red, int green, int blue) {
+        if (i < 0 || i > numberOfPixels) return;
+        updateData(i, red, green, blue);
     }
 
     public void setBrightness(byte brightness) {
@@ -91,49 +178,43 @@ public class APA102 {
         return brightness;
     }
 
-    // the alpha value should not use data[i][0] as it is for controlling brightness in a specific way
-    public Color getColor(int i) {
-        return new Color(data[i][3] & 0xFF, data[i][2] & 0xFF, data[i][1] & 0xFF, 255); // byte is signed
+    // the alpha value should not use the first byte of a LED frame as it is for controlling brightness in a specific way
+    public synchronized Color getColor(int i) {
+        int k = offset(i);
+        return new Color(backBuffer[k + 3] & 0xFF, backBuffer[k + 2] & 0xFF, backBuffer[k + 1] & 0xFF, 255); // byte is signed
     }
 
-    public void setColor(int led, Color color) {
-        if (led < 0 || led >= data.length) return;
+    public synchronized void setColor(int led, Color color) {
+        if (led < 0 || led > numberOfPixels) return;
         updateData(led, color);
         writeData();
     }
 
-    public void setData(byte[][] rgb) {
-        for (int i = 0; i < rgb.length; i++) {
-            data[i][0] = (byte) (0b11100000 + brightness); // brightness control
-            data[i][1] = rgb[i][2];
-            data[i][2] = rgb[i][1];
-            data[i][3] = rgb[i][0];
+    public synchronized void setData(byte[][] rgb) {
+        int n = Math.min(rgb.length, numberOfPixels + 1);
+        for (int i = 0; i < n; i++) {
+            updateData(i, rgb[i][0] & 0xFF, rgb[i][1] & 0xFF, rgb[i][2] & 0xFF);
         }
         writeData();
     }
 
-    public void setColorForAll(Color color) {
-        for (int i = 0; i < data.length; i++) {
+    public synchronized void setColorForAll(Color color) {
+        for (int i = 0; i <= numberOfPixels; i++) {
             updateData(i, color);
         }
         writeData();
     }
 
-    public void turnoff() {
+    public synchronized void turnoff() {
         setColorForAll(Color.BLACK);
+        awaitCommit();
     }
 
-    public void setDefaultRainbow() {
-        try {
-            spi.write(START_FRAME); // start frame
-            for (int i = 0; i <= numberOfPixels; i++) {
-                updateData(i, Color.getHSBColor((float) i / (float) numberOfPixels, 1.0f, 1.0f));
-                spi.write(data[i]);
-            }
-            spi.write(END_FRAME); // end frame
-        } catch (IOException e) {
-            e.printStackTrace();
+    public synchronized void setDefaultRainbow() {
+        for (int i = 0; i <= numberOfPixels; i++) {
+            updateData(i, Color.getHSBColor((float) i / (float) numberOfPixels, 1.0f, 1.0f));
         }
+        writeData();
     }
 
     public void resetShift() {
@@ -144,24 +225,28 @@ public class APA102 {
         shift -= delta;
     }
 
-    public void moveRainbow(int numberOfRainbows) {
-        try {
-            spi.write(START_FRAME); // start frame
-            for (int i = 0; i < numberOfRainbows; i++) {
-                int m = numberOfPixels / numberOfRainbows;
-                for (int j = 0; j < m; j++) {
-                    float a = shift + i * m + (float) j / (float) m;
-                    a %= 1;
-                    updateData(j, Color.getHSBColor(a, 1.0f, 1.0f));
-                    spi.write(data[j]);
-                }
+    public synchronized void moveRainbow(int numberOfRainbows) {
+        renderRainbow(numberOfRainbows);
+        writeData();
+    }
+
+    /**
+     * Renders the shifted rainbows into the back buffer without sending them. Call {@link #commit()} when the frame is complete.
+     */
+    public synchronized void renderRainbow(int numberOfRainbows) {
+        int m = numberOfPixels / numberOfRainbows;
+        for (int i = 0; i < numberOfRainbows; i++) {
+            for (int j = 0; j < m; j++) {
+                float a = shift + i * m + (float) j / (float) m;
+                a %= 1;
+                updateData(i * m + j, Color.HSBtoRGB(a, 1.0f, 1.0f));
             }
-            updateData(numberOfPixels, Color.getHSBColor(1.0f, 1.0f, 1.0f));
-            spi.write(data[numberOfPixels]);
-            spi.write(END_FRAME); // end frame
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        updateData(numberOfPixels, Color.HSBtoRGB(1.0f, 1.0f, 1.0f));
+    }
+
+    private void updateData(int i, int rgb) {
+        updateData(i, (rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
     }
 
-}
\ No newline at end of file
+}
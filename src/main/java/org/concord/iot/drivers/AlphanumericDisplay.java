@@ -42,7 +42,7 @@ public class AlphanumericDisplay {
     //The default Feather Wing Device i2c address is 70
     protected final int I2C_DEVICE = 0X70;
 
-    protected I2CBus i2cBus;
+    protected I2CBusManager i2cBus;
     protected I2CDevice adafruitFeather;
 
     //Specifies blink control on LED Display
@@ -63,6 +63,13 @@ public class AlphanumericDisplay {
      * @param brightness (HT16K33.DUTY_01 thru HT16K33.DUTY_16)
      */
     public AlphanumericDisplay(HT16K33 blink, HT16K33 brightness) throws Exception {
+        this(Hardware.getDefault(), blink, brightness);
+    }
+
+    /**
+     * Constructor for a display connected to the given board.
+     */
+    public AlphanumericDisplay(Hardware hardware, HT16K33 blink, HT16K33 brightness) throws Exception {
 
         if (blink != HT16K33.BLINK_1HZ &&
                 blink != HT16K33.BLINK_2HZ &&
@@ -85,8 +92,8 @@ public class AlphanumericDisplay {
         this.blink = blink;
         this.brightness = brightness;
 
-        i2cBus = I2CFactory.getInstance(I2C_BUS);
-        adafruitFeather = i2cBus.getDevice(I2C_DEVICE);
+        i2cBus = I2CBusManager.getInstance(hardware, I2C_BUS);
+        adafruitFeather = i2cBus.getDevice(I2C_DEVICE, I2CBusManager.Priority.LOW); // the display can wait for the sensors
 
         //turn on oscillator wakes up the HT16K33 chip
         adafruitFeather.write((byte) (HT16K33.CMD_SYSTEM_SETUP.get() | HT16K33.OSCILLATOR_ON.get()));
@@ -3,6 +3,7 @@ package org.concord.iot.drivers;
 import com.pi4j.io.i2c.I2CBus;
 import com.pi4j.io.i2c.I2CDevice;
 import com.pi4j.io.i2c.I2CFactory;
+import org.concord.iot.Util;
 
 import java.io.IOException;
 
@@ -18,8 +19,22 @@ public class BME280 {
     private double humidity;
     private I2CDevice device;
 
+    // compensation parameters, read from the chip only once
+    private int dig_T1, dig_T2, dig_T3;
+    private int dig_P1, dig_P2, dig_P3, dig_P4, dig_P5, dig_P6, dig_P7, dig_P8, dig_P9;
+    private int dig_H1, dig_H2, dig_H3, dig_H4, dig_H5, dig_H6;
+
+    private final byte[] data = new byte[8]; // reused by every read
+    private long lastReadLatency; // nanoseconds
+    private long totalReadLatency; // nanoseconds
+    private long readCount;
+
     public BME280() throws IOException, I2CFactory.UnsupportedBusNumberException {
-        I2CBus bus = I2CFactory.getInstance(I2CBus.BUS_1);
+        this(Hardware.getDefault());
+    }
+
+    public BME280(Hardware hardware) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        I2CBus bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1);
         /*
          *  The 7-bit device address is 111011x. The 6 MSB bits are fixed. The last bit is changeable by
          * SDO value and can be changed during operation. Connecting SDO to GND results in slave address
@@ -27,9 +42,12 @@ public class BME280 {
          * If unsure, use "sudo i2cdetect -y 1" to check.
          */
         device = bus.getDevice(0x76);
+        readCalibration();
+        configure();
     }
 
-    public void read() throws IOException {
+    // the trimming parameters are burned into the chip, so they never change
+    private void readCalibration() throws IOException {
 
         // Read 24 bytes of data from address 0x88(136)
         byte[] b1 = new byte[24];
@@ -37,79 +55,83 @@ public class BME280 {
 
         // Convert the data
         // temp coefficients
-        int dig_T1 = (b1[0] & 0xFF) + ((b1[1] & 0xFF) * 256);
-        int dig_T2 = (b1[2] & 0xFF) + ((b1[3] & 0xFF) * 256);
+        dig_T1 = (b1[0] & 0xFF) + ((b1[1] & 0xFF) * 256);
+        dig_T2 = (b1[2] & 0xFF) + ((b1[3] & 0xFF) * 256);
         if (dig_T2 > 32767) {
             dig_T2 -= 65536;
         }
-        int dig_T3 = (b1[4] & 0xFF) + ((b1[5] & 0xFF) * 256);
+        dig_T3 = (b1[4] & 0xFF) + ((b1[5] & 0xFF) * 256);
         if (dig_T3 > 32767) {
             dig_T3 -= 65536;
         }
 
         // pressure coefficients
-        int dig_P1 = (b1[6] & 0xFF) + ((b1[7] & 0xFF) * 256);
-        int dig_P2 = (b1[8] & 0xFF) + ((b1[9] & 0xFF) * 256);
+        dig_P1 = (b1[6] & 0xFF) + ((b1[7] & 0xFF) * 256);
+        dig_P2 = (b1[8] & 0xFF) + ((b1[9] & 0xFF) * 256);
         if (dig_P2 > 32767) {
             dig_P2 -= 65536;
         }
-        int dig_P3 = (b1[10] & 0xFF) + ((b1[11] & 0xFF) * 256);
+        dig_P3 = (b1[10] & 0xFF) + ((b1[11] & 0xFF) * 256);
         if (dig_P3 > 32767) {
             dig_P3 -= 65536;
         }
-        int dig_P4 = (b1[12] & 0xFF) + ((b1[13] & 0xFF) * 256);
+        dig_P4 = (b1[12] & 0xFF) + ((b1[13] & 0xFF) * 256);
         if (dig_P4 > 32767) {
             dig_P4 -= 65536;
         }
-        int dig_P5 = (b1[14] & 0xFF) + ((b1[15] & 0xFF) * 256);
+        dig_P5 = (b1[14] & 0xFF) + ((b1[15] & 0xFF) * 256);
         if (dig_P5 > 32767) {
             dig_P5 -= 65536;
         }
-        int dig_P6 = (b1[16] & 0xFF) + ((b1[17] & 0xFF) * 256);
+        dig_P6 = (b1[16] & 0xFF) + ((b1[17] & 0xFF) * 256);
         if (dig_P6 > 32767) {
             dig_P6 -= 65536;
         }
-        int dig_P7 = (b1[18] & 0xFF) + ((b1[19] & 0xFF) * 256);
+        dig_P7 = (b1[18] & 0xFF) + ((b1[19] & 0xFF) * 256);
         if (dig_P7 > 32767) {
             dig_P7 -= 65536;
         }
-        int dig_P8 = (b1[20] & 0xFF) + ((b1[21] & 0xFF) * 256);
+        dig_P8 = (b1[20] & 0xFF) + ((b1[21] & 0xFF) * 256);
         if (dig_P8 > 32767) {
             dig_P8 -= 65536;
         }
-        int dig_P9 = (b1[22] & 0xFF) + ((b1[23] & 0xFF) * 256);
+        dig_P9 = (b1[22] & 0xFF) + ((b1[23] & 0xFF) * 256);
         if (dig_P9 > 32767) {
             dig_P9 -= 65536;
         }
 
         // Read 1 byte of data from address 0xA1(161)
-        int dig_H1 = ((byte) device.read(0xA1) & 0xFF);
+        dig_H1 = ((byte) device.read(0xA1) & 0xFF);
 
         // Read 7 bytes of data from address 0xE1(225)
         device.read(0xE1, b1, 0, 7);
 
         // Convert the data
         // humidity coefficients
-        int dig_H2 = (b1[0] & 0xFF) + (b1[1] * 256);
+        dig_H2 = (b1[0] & 0xFF) + (b1[1] * 256);
         if (dig_H2 > 32767) {
             dig_H2 -= 65536;
         }
-        int dig_H3 = b1[2] & 0xFF;
-        int dig_H4 = ((b1[3] & 0xFF) * 16) + (b1[4] & 0xF);
+        dig_H3 = b1[2] & 0xFF;
+        dig_H4 = ((b1[3] & 0xFF) * 16) + (b1[4] & 0xF);
         if (dig_H4 > 32767) {
             dig_H4 -= 65536;
         }
-        int dig_H5 = ((b1[4] & 0xFF) / 16) + ((b1[5] & 0xFF) * 16);
+        dig_H5 = ((b1[4] & 0xFF) / 16) + ((b1[5] & 0xFF) * 16);
         if (dig_H5 > 32767) {
             dig_H5 -= 65536;
         }
-        int dig_H6 = b1[6] & 0xFF;
+        dig_H6 = b1[6] & 0xFF;
         if (dig_H6 > 127) {
             dig_H6 -= 256;
         }
 
+    }
+
+    // in normal mode, the chip keeps measuring by itself, so the data registers always hold a recent result
+    private void configure() throws IOException {
         // Select control humidity register
-        // Humidity over sampling rate = 1
+        // Humidity over sampling rate = 1 (only effective after writing to the control measurement register)
         device.write(0xF2, (byte) 0x01);
         // Select control measurement register
         // Normal mode, temp and pressure over sampling rate = 1
@@ -117,11 +139,21 @@ public class BME280 {
         // Select config register
         // Stand_by time = 1000 ms
         device.write(0xF5, (byte) 0xA0);
+        Util.sleepMilliseconds(10); // let the first conversion complete
+    }
+
+    /**
+     * Reads the 8 data bytes of the latest measurement in one transaction and compensates them with the cached parameters.
+     */
+    public void read() throws IOException {
 
         // Read 8 bytes of data from address 0xF7(247)
         // pressure msb1, pressure msb, pressure lsb, temp msb1, temp msb, temp lsb, humidity lsb, humidity msb
-        byte[] data = new byte[8];
+        long start = System.nanoTime();
         device.read(0xF7, data, 0, 8);
+        lastReadLatency = System.nanoTime() - start;
+        totalReadLatency += lastReadLatency;
+        readCount++;
 
         // Convert pressure and temperature data to 19-bits
         long adc_p = (((long) (data[0] & 0xFF) * 65536) + ((long) (data[1] & 0xFF) * 256) + (long) (data[2] & 0xF0)) / 16;
@@ -162,11 +194,26 @@ public class BME280 {
 
     }
 
+    /**
+     * @return the time spent on the i2c transfer of the last read, in milliseconds
+     */
+    public double getLastReadLatency() {
+        return lastReadLatency * 1.0e-6;
+    }
+
+    /**
+     * @return the average time spent on the i2c transfer of all reads so far, in milliseconds
+     */
+    public double getAverageReadLatency() {
+        return readCount == 0 ? 0 : totalReadLatency * 1.0e-6 / readCount;
+    }
+
     public void printf() {
         System.out.printf("BME280: Temperature in Celsius : %.2f C %n", cTemp);
         System.out.printf("BME280: Temperature in Fahrenheit : %.2f F %n", fTemp);
         System.out.printf("BME280: Pressure : %.2f hPa %n", pressure);
         System.out.printf("BME280: Relative Humidity : %.2f %% RH %n", humidity);
+        System.out.printf("BME280: Read Latency : %.3f ms %n", getLastReadLatency());
     }
 
     public double getTemperature() {
@@ -5,7 +5,6 @@ import com.pi4j.io.i2c.I2CDevice;
 import com.pi4j.io.i2c.I2CFactory;
 import com.pi4j.io.spi.SpiChannel;
 import com.pi4j.io.spi.SpiDevice;
-import com.pi4j.io.spi.SpiFactory;
 
 /* This class provides an abstraction to easily interface the Raspberry Pi with the
  * BMP280 Temperature and Pressure sensor by BOSCH via I2C and SPI protocols.
@@ -449,14 +448,18 @@ public class BMP280 {
     /* ----------- Start of Runtime Methods ----------- */
 
     public BMP280(Protocol protocol, int deviceID, int i2cBusID) throws Exception {
+        this(Hardware.getDefault(), protocol, deviceID, i2cBusID);
+    }
+
+    public BMP280(Hardware hardware, Protocol protocol, int deviceID, int i2cBusID) throws Exception {
         this.protocol = protocol;
 
         if (protocol == Protocol.I2C) {
-            I2Cbus = I2CFactory.getInstance(i2cBusID);
+            I2Cbus = I2CBusManager.getInstance(hardware, i2cBusID);
             I2Cdevice = I2Cbus.getDevice(deviceID);
         } else if (protocol == Protocol.SPI) {
             /* Set SPI to run default speed (1Mhz) in default mode (Mode 0) */
-            SPIdevice = SpiFactory.getInstance(SpiChannel.CS0, SpiDevice.DEFAULT_SPI_SPEED, SpiDevice.DEFAULT_SPI_MODE);
+            SPIdevice = hardware.openSpiDevice(SpiChannel.CS0, SpiDevice.DEFAULT_SPI_SPEED, SpiDevice.DEFAULT_SPI_MODE);
         } else {
             throw new Exception("Invalid protocol set: " + protocol);
         }
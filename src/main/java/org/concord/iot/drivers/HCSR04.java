@@ -1,14 +1,27 @@
 package org.concord.iot.drivers;
 
 import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinDigitalInput;
 import com.pi4j.io.gpio.GpioPinDigitalOutput;
 import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.PinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.PinListener;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * For information, see https://components101.com/ultrasonic-sensor-working-pinout-datasheet
+ * <p>
+ * {@link #getDistance()} measures by polling the echo pin, which keeps the calling thread busy for the whole echo. After
+ * {@link #start(int)}, the sensor is triggered periodically by a thread of its own, and the echo is timed from the edges of the
+ * echo pin, so the sampling thread only has to pick up the median of the latest distances from {@link #getMedianDistance()}.
+ * The edges are timestamped by a listener on the GPIO provider, which is called on the thread that reports the interrupt, as
+ * the listeners of a GPIO pin are called later from a thread pool, in no particular order.
  *
  * @author Rutger Claes <rutger.claes@cs.kuleuven.be>
  * @author Charles Xie
@@ -19,19 +32,186 @@ public class HCSR04 {
     private final static int TIMEOUT = 2100;
     private final static float SOUND_SPEED = 340.29f;  // speed of sound in m/s
     private final static int TRIG_DURATION_IN_MICROS = 10; // trigger duration of 10 micro s
+    private final static int MIN_PERIOD = 60; // milliseconds between triggers recommended by the datasheet
+    private final static float MAX_DISTANCE = 4000; // mm, beyond which the sensor reports no echo
 
     private final GpioPinDigitalInput echoPin;
     private final GpioPinDigitalOutput trigPin;
 
+    private ScheduledExecutorService trigger;
+    private PinListener echoListener;
+    private float[] distances = new float[5]; // the latest distances for the median filter, guarded by this
+    private int distanceCount; // guarded by this
+    private int distanceIndex; // guarded by this
+    private long echoStart; // nanoseconds, guarded by this
+    private long earlyEchoEnd; // nanoseconds, a falling edge reported before the rising edge, guarded by this
+    private boolean pending; // a trigger that has not been answered by an echo yet, guarded by this
+    private long measurements; // guarded by this
+    private long timeouts; // guarded by this
+    private long noEchoes; // guarded by this
+    private long outOfOrder; // guarded by this
+
     public HCSR04() {
-        GpioController gpio = GpioFactory.getInstance();
+        this(Hardware.getDefault());
+    }
+
+    public HCSR04(Hardware hardware) {
+        GpioController gpio = hardware.getGpioController();
         echoPin = gpio.provisionDigitalInputPin(RaspiPin.GPIO_04);
         trigPin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_05);
         trigPin.low();
     }
 
-    // return measurement in mm
+    /**
+     * Starts measuring in the background, triggering the sensor at the given period and timing the echoes from the edges of the echo pin.
+     *
+     * @param periodMillis the time between triggers in milliseconds, which is no less than 60
+     */
+    public synchronized void start(int periodMillis) {
+        if (trigger != null) {
+            return;
+        }
+        echoListener = event -> {
+            long time = System.nanoTime(); // as close to the edge as the listener gets
+            if (event instanceof PinDigitalStateChangeEvent) {
+                echoChanged(((PinDigitalStateChangeEvent) event).getState(), time);
+            }
+        };
+        echoPin.getProvider().addListener(echoPin.getPin(), echoListener);
+        trigger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HC-SR04 Trigger");
+            t.setDaemon(true);
+            return t;
+        });
+        trigger.scheduleAtFixedRate(this::triggerAsync, 0, Math.max(MIN_PERIOD, periodMillis), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (trigger == null) {
+            return;
+        }
+        trigger.shutdownNow();
+        trigger = null;
+        echoPin.getProvider().removeListener(echoPin.getPin(), echoListener);
+        echoListener = null;
+        pending = false;
+    }
+
+    public synchronized boolean isRunning() {
+        return trigger != null;
+    }
+
+    private void triggerAsync() {
+        synchronized (this) {
+            if (pending) {
+                if (echoStart != 0 && earlyEchoEnd != 0) { // the edges of the last echo came in the wrong order
+                    outOfOrder++;
+                } else { // the sensor never finished an echo for the last trigger
+                    timeouts++;
+                }
+            }
+            pending = true;
+            echoStart = 0;
+            earlyEchoEnd = 0;
+        }
+        triggerSensor();
+    }
+
+    // called by the thread of the GPIO provider that reports the edge, with the time when the listener was reached
+    private synchronized void echoChanged(PinState state, long time) {
+        if (!pending) {
+            return;
+        }
+        if (state == PinState.HIGH) {
+            if (echoStart == 0) {
+                echoStart = time;
+            }
+            return;
+        }
+        if (echoStart == 0) { // a late edge of an earlier echo, or the end of this one reported too early
+            earlyEchoEnd = time;
+            return;
+        }
+        pending = false;
+        float distance = (time - echoStart) * 0.001f * SOUND_SPEED / 2000f;
+        if (distance > MAX_DISTANCE) { // the sensor holds the echo high until it times out when nothing is in range
+            noEchoes++;
+        } else {
+            measurements++;
+            distances[distanceIndex] = distance;
+            distanceIndex = (distanceIndex + 1) % distances.length;
+            distanceCount = Math.min(distanceCount + 1, distances.length);
+        }
+    }
+
+    /**
+     * @return the median of the latest distances in mm measured in the background, or NaN if there is none yet
+     */
+    public synchronized float getMedianDistance() {
+        if (distanceCount == 0) {
+            return Float.NaN;
+        }
+        float[] a = Arrays.copyOf(distances, distanceCount);
+        Arrays.sort(a);
+        return distanceCount % 2 == 1 ? a[distanceCount / 2] : 0.5f * (a[distanceCount / 2 - 1] + a[distanceCount / 2]);
+    }
+
+    /**
+     * Sets the number of the latest distances that the median is taken over, which discards the distances measured so far.
+     */
+    public synchronized void setFilterSize(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Filter size must be positive: " + n);
+        }
+        distances = new float[n];
+        distanceCount = 0;
+        distanceIndex = 0;
+    }
+
+    public synchronized int getFilterSize() {
+        return distances.length;
+    }
+
+    /**
+     * @return the number of echoes measured in the background
+     */
+    public synchronized long getMeasurements() {
+        return measurements;
+    }
+
+    /**
+     * @return the number of triggers that no echo followed before the next trigger
+     */
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return the number of echoes that timed out because nothing was in range
+     */
+    public synchronized long getNoEchoes() {
+        return noEchoes;
+    }
+
+    /**
+     * @return the number of echoes discarded because their falling edge was reported before their rising edge, so that they could not be timed
+     */
+    public synchronized long getOutOfOrder() {
+        return outOfOrder;
+    }
+
+    public synchronized void resetStatistics() {
+        measurements = 0;
+        outOfOrder = 0;
+        timeouts = 0;
+        noEchoes = 0;
+    }
+
+    // return measurement in mm, or the median distance if measuring in the background
     public float getDistance() {
+        if (isRunning()) {
+            return getMedianDistance();
+        }
         float distance;
         try {
             triggerSensor();
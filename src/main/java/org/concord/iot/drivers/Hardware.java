@@ -0,0 +1,69 @@
+package org.concord.iot.drivers;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CFactory;
+import com.pi4j.io.spi.SpiChannel;
+import com.pi4j.io.spi.SpiDevice;
+import com.pi4j.io.spi.SpiMode;
+import org.concord.iot.drivers.simulated.SimulatedBoard;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The buses and pins of a board, which the drivers get from here instead of from the Pi4J factories, so that they can run against
+ * a simulated board as well as against the Raspberry Pi they are on. The interfaces are those of Pi4J, so a driver talks to either
+ * in the same way.
+ * <p>
+ * A driver constructed without a board uses the default one, which is the Raspberry Pi unless the system property iot.simulated is
+ * set to true. To run many boards in one process, pass each driver the board it belongs to.
+ *
+ * @author Charles Xie
+ */
+
+public abstract class Hardware {
+
+    private static Hardware defaultHardware;
+
+    final Map<Integer, I2CBusManager> i2cBusManagers = new HashMap<>(); // the shared managers of the I2C buses of this board
+
+    public static synchronized Hardware getDefault() {
+        if (defaultHardware == null) {
+            defaultHardware = "true".equals(System.getProperty("iot.simulated", "false")) ? new SimulatedBoard() : new RaspberryPi();
+        }
+        return defaultHardware;
+    }
+
+    public static synchronized void setDefault(Hardware hardware) {
+        defaultHardware = hardware;
+    }
+
+    /**
+     * Opens an I2C bus of this board. Drivers should go through {@link I2CBusManager#getInstance(Hardware, int)}, which opens each bus once.
+     */
+    public abstract I2CBus openI2CBus(int busNumber) throws IOException, I2CFactory.UnsupportedBusNumberException;
+
+    public abstract SpiDevice openSpiDevice(SpiChannel channel, int speed, SpiMode mode) throws IOException;
+
+    public abstract GpioController getGpioController();
+
+    /**
+     * Closes the I2C buses that have been opened on this board.
+     */
+    public void shutdown() {
+        I2CBusManager[] managers;
+        synchronized (i2cBusManagers) {
+            managers = i2cBusManagers.values().toArray(new I2CBusManager[0]);
+        }
+        for (I2CBusManager m : managers) {
+            try {
+                m.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
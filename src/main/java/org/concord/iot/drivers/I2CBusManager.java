@@ -0,0 +1,395 @@
+package org.concord.iot.drivers;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+import com.pi4j.io.i2c.I2CFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns an I2C bus and serializes all the transactions on it through a priority queue that a single thread drains, so that drivers
+ * called from different threads (the sensor channels, the event dispatch thread, the database callbacks) never interleave on the bus.
+ * <p>
+ * A driver gets its device from the shared manager of the bus instead of opening the bus itself. Every call on that device is a
+ * transaction of its own; a group of calls that must not be split, such as selecting a register and then reading a block from it,
+ * can be submitted as a single transaction with {@link #transaction(I2CDevice, Transaction)}, which also saves a trip through the
+ * queue for each call in it. Transactions of a higher priority go first, and those of the same priority in the order submitted.
+ * <p>
+ * The number of transactions, the time they waited in the queue, and the time they took on the bus are recorded for each device.
+ *
+ * @author Charles Xie
+ */
+
+public class I2CBusManager implements I2CBus {
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    public interface Transaction<T> {
+        T run() throws IOException;
+    }
+
+    private final Hardware hardware;
+    private final I2CBus bus;
+    private final PriorityBlockingQueue<Request<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Device> devices = new ArrayList<>();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    // a transaction waiting in the queue
+    private class Request<T> extends FutureTask<T> implements Comparable<Request<?>> {
+
+        private final Device device;
+        private final Priority priority;
+        private final long sequenceNumber = sequence.getAndIncrement();
+        private final long submitTime = System.nanoTime();
+
+        Request(Device device, Priority priority, Transaction<T> transaction) {
+            super(transaction::run);
+            this.device = device;
+            this.priority = priority;
+        }
+
+        void fail(IOException e) {
+            setException(e);
+        }
+
+        @Override
+        public int compareTo(Request<?> r) {
+            int c = priority.compareTo(r.priority);
+            return c != 0 ? c : Long.compare(sequenceNumber, r.sequenceNumber);
+        }
+
+    }
+
+    /**
+     * A device on the bus whose calls go through the queue of the bus.
+     */
+    public class Device implements I2CDevice {
+
+        private final I2CDevice device;
+        private final Priority priority;
+        private volatile long transactions;
+        private volatile long failures;
+        private volatile long totalWaitTime; // nanoseconds
+        private volatile long totalBusTime; // nanoseconds
+        private volatile long maxBusTime; // nanoseconds
+
+        private Device(I2CDevice device, Priority priority) {
+            this.device = device;
+            this.priority = priority;
+        }
+
+        @Override
+        public int getAddress() {
+            return device.getAddress();
+        }
+
+        public I2CBusManager getBus() {
+            return I2CBusManager.this;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getAverageWaitTime() { // milliseconds
+            return transactions == 0 ? 0 : totalWaitTime * 1.0e-6 / transactions;
+        }
+
+        public double getAverageBusTime() { // milliseconds
+            return transactions == 0 ? 0 : totalBusTime * 1.0e-6 / transactions;
+        }
+
+        public double getMaxBusTime() { // milliseconds
+            return maxBusTime * 1.0e-6;
+        }
+
+        // called only by the worker thread
+        private void record(long waitTime, long busTime, boolean failed) {
+            transactions++;
+            if (failed) {
+                failures++;
+            }
+            totalWaitTime += waitTime;
+            totalBusTime += busTime;
+            if (busTime > maxBusTime) {
+                maxBusTime = busTime;
+            }
+        }
+
+        @Override
+        public void write(byte b) throws IOException {
+            execute(this, () -> {
+                device.write(b);
+                return null;
+            });
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int size) throws IOException {
+            execute(this, () -> {
+                device.write(buffer, offset, size);
+                return null;
+            });
+        }
+
+        @Override
+        public void write(byte[] buffer) throws IOException {
+            write(buffer, 0, buffer.length);
+        }
+
+        @Override
+        public void write(int address, byte b) throws IOException {
+            execute(this, () -> {
+                device.write(address, b);
+                return null;
+            });
+        }
+
+        @Override
+        public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+            execute(this, () -> {
+                device.write(address, buffer, offset, size);
+                return null;
+            });
+        }
+
+        @Override
+        public void write(int address, byte[] buffer) throws IOException {
+            write(address, buffer, 0, buffer.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return execute(this, device::read);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int size) throws IOException {
+            return execute(this, () -> device.read(buffer, offset, size));
+        }
+
+        @Override
+        public int read(int address) throws IOException {
+            return execute(this, () -> device.read(address));
+        }
+
+        @Override
+        public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+            return execute(this, () -> device.read(address, buffer, offset, size));
+        }
+
+        @Override
+        public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+            return execute(this, () -> device.read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize));
+        }
+
+        @Override
+        public void ioctl(long command, int value) throws IOException {
+            execute(this, () -> {
+                device.ioctl(command, value);
+                return null;
+            });
+        }
+
+        @Override
+        public void ioctl(long command, ByteBuffer data, IntBuffer offsets) throws IOException {
+            execute(this, () -> {
+                device.ioctl(command, data, offsets);
+                return null;
+            });
+        }
+
+        @Override
+        public String toString() {
+            return String.format("0x%02X: %d transactions, %d failed, wait %.3f ms, bus time %.3f ms, max %.3f ms", getAddress(), transactions, failures, getAverageWaitTime(), getAverageBusTime(), getMaxBusTime());
+        }
+
+    }
+
+    /**
+     * @return the manager of the given bus of the default board
+     */
+    public static I2CBusManager getInstance(int busNumber) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        return getInstance(Hardware.getDefault(), busNumber);
+    }
+
+    /**
+     * @return the manager of the given bus of the given board, which opens the bus the first time it is called for it
+     */
+    public static I2CBusManager getInstance(Hardware hardware, int busNumber) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        synchronized (hardware.i2cBusManagers) {
+            I2CBusManager m = hardware.i2cBusManagers.get(busNumber);
+            if (m == null) {
+                m = new I2CBusManager(hardware, hardware.openI2CBus(busNumber));
+                hardware.i2cBusManagers.put(busNumber, m);
+            }
+            return m;
+        }
+    }
+
+    private I2CBusManager(Hardware hardware, I2CBus bus) {
+        this.hardware = hardware;
+        this.bus = bus;
+        worker = new Thread(this::work, "I2C Bus " + bus.getBusNumber());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void work() {
+        while (!closed) {
+            Request<?> r;
+            try {
+                r = queue.take();
+            } catch (InterruptedException e) { // closed
+                break;
+            }
+            if (closed) {
+                r.fail(createClosedException());
+                break;
+            }
+            long start = System.nanoTime();
+            r.run();
+            long end = System.nanoTime();
+            boolean failed;
+            try {
+                r.get();
+                failed = false;
+            } catch (Exception e) {
+                failed = true;
+            }
+            r.device.record(start - r.submitTime, end - start, failed);
+        }
+    }
+
+    /**
+     * @return a device at the given address whose transactions have the normal priority
+     */
+    @Override
+    public I2CDevice getDevice(int address) throws IOException {
+        return getDevice(address, Priority.NORMAL);
+    }
+
+    public I2CDevice getDevice(int address, Priority priority) throws IOException {
+        Device d = new Device(bus.getDevice(address), priority);
+        synchronized (devices) {
+            devices.add(d);
+        }
+        return d;
+    }
+
+    /**
+     * @return the devices that have been opened on this bus, with their statistics
+     */
+    public List<Device> getDevices() {
+        synchronized (devices) {
+            return new ArrayList<>(devices);
+        }
+    }
+
+    /**
+     * Runs the given calls on a device of this bus as one transaction, which no other transaction on the bus can interrupt.
+     */
+    public <T> T transaction(I2CDevice device, Transaction<T> transaction) throws IOException {
+        if (!(device instanceof Device) || ((Device) device).getBus() != this) {
+            throw new IllegalArgumentException("Not a device of I2C bus " + getBusNumber() + ": " + device);
+        }
+        return execute((Device) device, transaction);
+    }
+
+    private <T> T execute(Device device, Transaction<T> transaction) throws IOException {
+        if (Thread.currentThread() == worker) { // a call within a transaction, which already has the bus
+            return transaction.run();
+        }
+        if (closed) {
+            throw createClosedException();
+        }
+        Request<T> r = new Request<>(device, device.priority, transaction);
+        queue.put(r);
+        if (closed && queue.remove(r)) { // closed while this request was being queued, after the queue had been drained
+            r.fail(createClosedException());
+        }
+        try {
+            return r.get();
+        } catch (InterruptedException e) {
+            r.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for I2C bus " + getBusNumber());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public int getBusNumber() {
+        return bus.getBusNumber();
+    }
+
+    private IOException createClosedException() {
+        return new IOException("I2C bus " + getBusNumber() + " is closed");
+    }
+
+    /**
+     * Stops the worker and closes the bus, which is shared by all the devices on it, so only the application should call this method.
+     * The transaction in progress is allowed to finish, and those still waiting in the queue, or submitted from now on, fail with an IOException.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (hardware.i2cBusManagers) {
+            hardware.i2cBusManagers.remove(getBusNumber());
+        }
+        closed = true;
+        worker.interrupt();
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Request<?> r; (r = queue.poll()) != null; ) {
+            r.fail(createClosedException());
+        }
+        bus.close();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("I2C Bus " + getBusNumber() + ": " + queue.size() + " transactions queued");
+        for (Device d : getDevices()) {
+            sb.append("\n  ").append(d);
+        }
+        return sb.toString();
+    }
+
+}
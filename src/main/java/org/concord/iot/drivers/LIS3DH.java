@@ -39,7 +39,11 @@ public class LIS3DH {
     private I2CDevice device;
 
     public LIS3DH() throws IOException, I2CFactory.UnsupportedBusNumberException {
-        I2CBus bus = I2CFactory.getInstance(I2CBus.BUS_1);
+        this(Hardware.getDefault());
+    }
+
+    public LIS3DH(Hardware hardware) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        I2CBus bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1);
         device = bus.getDevice(0x18);
         // sets up the accelerometer to begin reading. Normal operation mode, all axes enabled. 10 Hz ODR Data Rate
         device.write(LIS3DHTR_CTRL_REG1_A, (byte) 0x27);
@@ -51,13 +55,9 @@ public class LIS3DH {
 
     public void read() throws IOException {
 
+        // the six output registers in one transaction, as the address auto-increments when its most significant bit is set
         byte[] b = new byte[6];
-        b[0] = (byte) device.read(0x28);
-        b[1] = (byte) device.read(0x29);
-        b[2] = (byte) device.read(0x2A);
-        b[3] = (byte) device.read(0x2B);
-        b[4] = (byte) device.read(0x2C);
-        b[5] = (byte) device.read(0x2D);
+        device.read(0x28 | 0x80, b, 0, 6);
 
         ax = (b[1] << 8) | (b[0] & 0xFF);
         ay = (b[3] << 8) | (b[2] & 0xFF);
@@ -208,7 +208,7 @@ public class MPU6050 {
      * <b>[datasheet 2 - p.27]</b> Interrupt Enable
      * <p>This register enables interrupt generation by interrupt sources.</p>
      */
-    public static final int MPU6050_REG_ADDR_INT_ENABLE = 0x1A; // 56
+    public static final int MPU6050_REG_ADDR_INT_ENABLE = 0x38; // 56
 
     /**
      * <b>[datasheet 2 - p.40]</b> Power Management 1
@@ -225,6 +225,59 @@ public class MPU6050 {
      */
     public static final int MPU6050_REG_ADDR_PWR_MGMT_2 = 0x6C; // 108
 
+    /**
+     * <b>[datasheet 2 - p.16]</b> FIFO Enable
+     * <p>This register determines which sensor measurements are loaded into the FIFO buffer.</p>
+     */
+    public static final int MPU6050_REG_ADDR_FIFO_EN = 0x23; // 35
+
+    /**
+     * <b>[datasheet 2 - p.28]</b> Interrupt Status
+     * <p>This register shows the interrupt status of each interrupt generation source.
+     * Each bit will clear after the register is read.</p>
+     */
+    public static final int MPU6050_REG_ADDR_INT_STATUS = 0x3A; // 58
+
+    /**
+     * <b>[datasheet 2 - p.38]</b> User Control
+     * <p>This register allows the user to enable and disable the FIFO buffer, I2C Master Mode,
+     * and primary I2C interface. The FIFO buffer, I2C Master, sensor signal paths and sensor
+     * registers can also be reset using this register.</p>
+     */
+    public static final int MPU6050_REG_ADDR_USER_CTRL = 0x6A; // 106
+
+    /**
+     * <b>[datasheet 2 - p.43]</b> FIFO Count Registers
+     * <p>These registers keep track of the number of samples currently in the FIFO buffer.</p>
+     */
+    public static final int MPU6050_REG_ADDR_FIFO_COUNT_H = 0x72; // 114
+
+    /**
+     * <b>[datasheet 2 - p.44]</b> FIFO Read Write
+     * <p>This register is used to read and write data from the FIFO buffer.</p>
+     */
+    public static final int MPU6050_REG_ADDR_FIFO_R_W = 0x74; // 116
+
+    /**
+     * Size of the FIFO buffer in bytes.
+     */
+    public static final int FIFO_SIZE = 1024;
+
+    /**
+     * Number of bytes of one FIFO frame: three accelerometer words followed by three gyroscope words.
+     */
+    public static final int FIFO_FRAME_LENGTH = 12;
+
+    /**
+     * Maximum number of complete frames the FIFO buffer can hold.
+     */
+    public static final int MAX_FIFO_FRAMES = FIFO_SIZE / FIFO_FRAME_LENGTH;
+
+    private static final int FIFO_EN_ACCEL_AND_GYRO = 0x78; // XG_FIFO_EN | YG_FIFO_EN | ZG_FIFO_EN | ACCEL_FIFO_EN
+    private static final int USER_CTRL_FIFO_EN = 0x40;
+    private static final int USER_CTRL_FIFO_RESET = 0x04;
+    private static final int INT_STATUS_FIFO_OFLOW = 0x10;
+
     /**
      * <b>[datasheet 2 - p.29]</b> Accelerometer Measurements
      * <p>These registers store the most recent accelerometer measurements.</p>
@@ -421,6 +474,54 @@ public class MPU6050 {
 
     private long lastUpdateTime = 0;
 
+    /**
+     * Number of bytes from ACCEL_XOUT_H to GYRO_ZOUT_L: three accelerometer words,
+     * one temperature word and three gyroscope words.
+     */
+    public static final int BURST_LENGTH = 14;
+
+    /**
+     * Reusable buffer for burst reads, so that sampling does not allocate.
+     */
+    private final byte[] burstBuffer = new byte[BURST_LENGTH];
+
+    /**
+     * If true, all the measurements are fetched in one i2c transaction
+     * instead of two transactions per register pair.
+     */
+    private boolean burstMode = true;
+
+    /**
+     * Last temperature value, in °C, retrieved in burst mode.
+     */
+    private double temperature = 0.;
+
+    // FIFO
+
+    /**
+     * A batch of frames drained from the FIFO buffer, stored in reusable primitive arrays.
+     * Times are in seconds since the FIFO was started, derived from the configured sample rate.
+     */
+    public static class FifoFrames {
+
+        public final double[] time = new double[MAX_FIFO_FRAMES];
+        public final double[] accelX = new double[MAX_FIFO_FRAMES];
+        public final double[] accelY = new double[MAX_FIFO_FRAMES];
+        public final double[] accelZ = new double[MAX_FIFO_FRAMES];
+        public final double[] gyroX = new double[MAX_FIFO_FRAMES];
+        public final double[] gyroY = new double[MAX_FIFO_FRAMES];
+        public final double[] gyroZ = new double[MAX_FIFO_FRAMES];
+        public int count;
+
+    }
+
+    private final byte[] fifoBuffer = new byte[MAX_FIFO_FRAMES * FIFO_FRAME_LENGTH];
+    private final byte[] fifoCountBuffer = new byte[2];
+    private boolean fifoEnabled;
+    private long fifoStartTime; // nanoseconds
+    private long fifoFrameIndex; // index of the next frame since the FIFO was started
+    private long fifoOverflows;
+
     // ACCELEROMETER
 
     /**
@@ -557,8 +658,31 @@ public class MPU6050 {
      * @see #DEFAULT_DLPF_CFG
      */
     public MPU6050(int i2cAddress, int dlpfCfg, int smplrtDiv) throws Exception {
+        this(Hardware.getDefault(), i2cAddress, dlpfCfg, smplrtDiv);
+    }
+
+    /**
+     * Constructor for a new MPU6050 on the given board using the default i2c address,
+     * DLPF setting, and sample rate divider.
+     *
+     * @param hardware the board that the MPU6050 is connected to.
+     */
+    public MPU6050(Hardware hardware) throws Exception {
+        this(hardware, DEFAULT_MPU6050_ADDRESS, DEFAULT_DLPF_CFG, DEFAULT_SMPLRT_DIV);
+    }
+
+    /**
+     * Constructor for a new MPU6050 on the given board using a specific i2c address
+     * and a specific value for the DLPF setting.
+     *
+     * @param hardware   the board that the MPU6050 is connected to.
+     * @param i2cAddress the i2c address of the MPU6050.
+     * @param dlpfCfg    the value of the DLPF setting.
+     * @param smplrtDiv  the value of the sample rate divider.
+     */
+    public MPU6050(Hardware hardware, int i2cAddress, int dlpfCfg, int smplrtDiv) throws Exception {
         try {
-            bus = I2CFactory.getInstance(I2CBus.BUS_1);
+            bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1);
             device = bus.getDevice(i2cAddress);
         } catch (Exception e) {
             e.printStackTrace();
@@ -704,31 +828,83 @@ public class MPU6050 {
         System.out.println("Calibration ended");
     }
 
+    /**
+     * Sets whether all the measurements are fetched in a single 14-byte i2c transaction
+     * (burst mode, the default) or register by register.
+     */
+    public void setBurstMode(boolean burstMode) {
+        this.burstMode = burstMode;
+    }
+
+    public boolean isBurstMode() {
+        return burstMode;
+    }
+
+    /**
+     * Reads ACCEL_XOUT_H through GYRO_ZOUT_L in one i2c transaction into the reusable burst buffer.
+     * As all the registers come from the same transaction, they belong to the same sample.
+     */
+    private void readBurst() throws Exception {
+        try {
+            int n = device.read(MPU6050_REG_ADDR_ACCEL_XOUT_H, burstBuffer, 0, BURST_LENGTH);
+            if (n != BURST_LENGTH)
+                throw new Exception("Burst read returned " + n + " bytes instead of " + BURST_LENGTH);
+        } catch (IOException e) {
+            throw new Exception("The measurement registers can not be read from the i2c device or i2c bus.", e);
+        }
+    }
+
+    /**
+     * Combines two bytes of a buffer, high byte first, with a two's complement representation.
+     */
+    static int toWord2C(byte[] buffer, int offset) {
+        return (short) (((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF));
+    }
+
     /**
      * Update values for the accelerometer angles, gyroscope angles and filtered angles values.
+     * In burst mode, this method does not allocate any object.
      * <p><i>This method is used with the updating thread.</i></p>
      */
     public void updateValues() throws Exception {
+        if (burstMode) {
+            readBurst();
+            temperature = toWord2C(burstBuffer, 6) / 340. + 36.53; // cfr [datasheet 2 - p.30]
+            update(toWord2C(burstBuffer, 0) / accelLSBSensitivity, toWord2C(burstBuffer, 2) / accelLSBSensitivity, -toWord2C(burstBuffer, 4) / accelLSBSensitivity,
+                    toWord2C(burstBuffer, 8) / gyroLSBSensitivity, toWord2C(burstBuffer, 10) / gyroLSBSensitivity, toWord2C(burstBuffer, 12) / gyroLSBSensitivity, getElapsedTime());
+        } else {
+            double[] accelerations = readScaledAccelerometerValues();
+            double[] angularSpeeds = readScaledGyroscopeValues();
+            update(accelerations[0], accelerations[1], accelerations[2], angularSpeeds[0], angularSpeeds[1], angularSpeeds[2], getElapsedTime());
+        }
+    }
+
+    // angular speed * time = angle
+    private double getElapsedTime() {
+        double dt = Math.abs(System.currentTimeMillis() - lastUpdateTime) / 1000.; // s
+        lastUpdateTime = System.currentTimeMillis();
+        return dt;
+    }
+
+    /**
+     * @param dt the time, in seconds, elapsed since the previous update.
+     */
+    private void update(double accelX, double accelY, double accelZ, double gyroX, double gyroY, double gyroZ, double dt) {
         // Accelerometer
-        double[] accelerations = readScaledAccelerometerValues();
-        accelAccelerationX = accelerations[0];
-        accelAccelerationY = accelerations[1];
-        accelAccelerationZ = accelerations[2];
+        accelAccelerationX = accelX;
+        accelAccelerationY = accelY;
+        accelAccelerationZ = accelZ;
         accelAngleX = getAccelXAngle(accelAccelerationX, accelAccelerationY, accelAccelerationZ);
         accelAngleY = getAccelYAngle(accelAccelerationX, accelAccelerationY, accelAccelerationZ);
         accelAngleZ = getAccelZAngle();
 
         // Gyroscope
-        double[] angularSpeeds = readScaledGyroscopeValues();
-        gyroAngularSpeedX = angularSpeeds[0] - gyroAngularSpeedOffsetX;
-        gyroAngularSpeedY = angularSpeeds[1] - gyroAngularSpeedOffsetY;
-        gyroAngularSpeedZ = angularSpeeds[2] - gyroAngularSpeedOffsetZ;
-        // angular speed * time = angle
-        double dt = Math.abs(System.currentTimeMillis() - lastUpdateTime) / 1000.; // s
+        gyroAngularSpeedX = gyroX - gyroAngularSpeedOffsetX;
+        gyroAngularSpeedY = gyroY - gyroAngularSpeedOffsetY;
+        gyroAngularSpeedZ = gyroZ - gyroAngularSpeedOffsetZ;
         double deltaGyroAngleX = gyroAngularSpeedX * dt;
         double deltaGyroAngleY = gyroAngularSpeedY * dt;
         double deltaGyroAngleZ = gyroAngularSpeedZ * dt;
-        lastUpdateTime = System.currentTimeMillis();
 
         gyroAngleX += deltaGyroAngleX;
         gyroAngleY += deltaGyroAngleY;
@@ -741,6 +917,124 @@ public class MPU6050 {
         filteredAngleZ = filteredAngleZ + deltaGyroAngleZ;
     }
 
+    /**
+     * Starts streaming accelerometer and gyroscope measurements into the internal FIFO buffer
+     * at the Sample Rate set by the given divider, so that no sample is lost between two drains.
+     * With the default DLPF setting, a divider of 0 gives 1 kHz; the buffer then fills up in
+     * about 85 ms, so {@link #drainFifo(FifoFrames)} must be called more often than that.
+     *
+     * @param smplrtDiv the value of the sample rate divider.
+     * @see #getSampleRate()
+     */
+    public void startFifo(int smplrtDiv) throws Exception {
+        if (smplrtDiv < 0 || smplrtDiv > 255)
+            throw new IllegalArgumentException("The sample rate divider must be in the 0..255 range.");
+        this.smplrtDiv = smplrtDiv;
+        updateRegisterValue(MPU6050_REG_ADDR_SMPRT_DIV, smplrtDiv);
+        updateRegisterValue(MPU6050_REG_ADDR_FIFO_EN, FIFO_EN_ACCEL_AND_GYRO);
+        resetFifo();
+        fifoEnabled = true;
+        fifoFrameIndex = 0;
+        fifoOverflows = 0;
+        fifoStartTime = System.nanoTime();
+    }
+
+    /**
+     * Stops streaming into the FIFO buffer.
+     */
+    public void stopFifo() throws Exception {
+        fifoEnabled = false;
+        updateRegisterValue(MPU6050_REG_ADDR_FIFO_EN, 0x00);
+        writeUnsignedValueToRegister(MPU6050_REG_ADDR_USER_CTRL, 0x00);
+    }
+
+    public boolean isFifoEnabled() {
+        return fifoEnabled;
+    }
+
+    /**
+     * @return the number of times the FIFO buffer overflowed and had to be reset.
+     */
+    public long getFifoOverflows() {
+        return fifoOverflows;
+    }
+
+    private void resetFifo() throws Exception {
+        // FIFO_RESET clears itself, so the register cannot be verified after writing
+        writeUnsignedValueToRegister(MPU6050_REG_ADDR_USER_CTRL, USER_CTRL_FIFO_RESET);
+        writeUnsignedValueToRegister(MPU6050_REG_ADDR_USER_CTRL, USER_CTRL_FIFO_EN);
+    }
+
+    /**
+     * Reads all the complete frames waiting in the FIFO buffer in one block transfer, converts them
+     * to g and °/sec, and timestamps each of them from the Sample Rate. The latest values returned by
+     * the getters are updated with every frame, integrating the gyroscope angles over the exact sample
+     * period. This method does not allocate any object.
+     *
+     * @param frames the batch to fill, whose previous content is overwritten.
+     * @return the number of frames read.
+     */
+    public int drainFifo(FifoFrames frames) throws Exception {
+        frames.count = 0;
+        if (!fifoEnabled)
+            return 0;
+        double period = 1.0 / getSampleRate();
+        int status = readUnsignedRegisterValue(MPU6050_REG_ADDR_INT_STATUS);
+        int count = readFifoCount();
+        if ((status & INT_STATUS_FIFO_OFLOW) != 0 || count >= MAX_FIFO_FRAMES * FIFO_FRAME_LENGTH) {
+            // frames have been lost, so start over and realign the frame index with the clock
+            resetFifo();
+            fifoOverflows++;
+            fifoFrameIndex = Math.round((System.nanoTime() - fifoStartTime) * 1.0e-9 / period);
+            return 0;
+        }
+        int n = count / FIFO_FRAME_LENGTH;
+        if (n == 0)
+            return 0;
+        int length = n * FIFO_FRAME_LENGTH;
+        try {
+            int read = device.read(MPU6050_REG_ADDR_FIFO_R_W, fifoBuffer, 0, length);
+            if (read != length)
+                throw new Exception("FIFO read returned " + read + " bytes instead of " + length);
+        } catch (IOException e) {
+            throw new Exception("The FIFO buffer can not be read from the i2c device or i2c bus.", e);
+        }
+        for (int i = 0; i < n; i++) {
+            int k = i * FIFO_FRAME_LENGTH;
+            frames.time[i] = (fifoFrameIndex + i) * period;
+            frames.accelX[i] = toWord2C(fifoBuffer, k) / accelLSBSensitivity;
+            frames.accelY[i] = toWord2C(fifoBuffer, k + 2) / accelLSBSensitivity;
+            frames.accelZ[i] = -toWord2C(fifoBuffer, k + 4) / accelLSBSensitivity;
+            update(frames.accelX[i], frames.accelY[i], frames.accelZ[i], toWord2C(fifoBuffer, k + 6) / gyroLSBSensitivity, toWord2C(fifoBuffer, k + 8) / gyroLSBSensitivity, toWord2C(fifoBuffer, k + 10) / gyroLSBSensitivity, period);
+            frames.gyroX[i] = gyroAngularSpeedX; // offset-corrected
+            frames.gyroY[i] = gyroAngularSpeedY;
+            frames.gyroZ[i] = gyroAngularSpeedZ;
+        }
+        fifoFrameIndex += n;
+        frames.count = n;
+        return n;
+    }
+
+    private int readFifoCount() throws Exception {
+        try {
+            int read = device.read(MPU6050_REG_ADDR_FIFO_COUNT_H, fifoCountBuffer, 0, 2);
+            if (read != 2)
+                throw new Exception("FIFO count read returned " + read + " bytes instead of 2");
+        } catch (IOException e) {
+            throw new Exception("The FIFO count can not be read from the i2c device or i2c bus.", e);
+        }
+        return ((fifoCountBuffer[0] & 0xFF) << 8) | (fifoCountBuffer[1] & 0xFF);
+    }
+
+    /**
+     * Get the last temperature, in °C, of the chip. Only updated in burst mode.
+     *
+     * @return the die temperature in °C.
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
     /**
      * Get the last acceleration values, in g, retrieved from the accelerometer,
      * for the x, y and z axis.
@@ -752,6 +1046,20 @@ public class MPU6050 {
         return new double[]{accelAccelerationX, accelAccelerationY, accelAccelerationZ};
     }
 
+    /**
+     * Copies the last acceleration values, in g, for the x, y and z axis
+     * into the given array, without allocating a new one.
+     *
+     * @param result an array of at least three elements.
+     * @return the given array.
+     */
+    public double[] getAccelAccelerations(double[] result) {
+        result[0] = accelAccelerationX;
+        result[1] = accelAccelerationY;
+        result[2] = accelAccelerationZ;
+        return result;
+    }
+
     /**
      * Get the last angle values, in °, retrieved from the accelerometer,
      * for the x, y and z axis.
@@ -774,6 +1082,20 @@ public class MPU6050 {
         return new double[]{gyroAngularSpeedX, gyroAngularSpeedY, gyroAngularSpeedZ};
     }
 
+    /**
+     * Copies the last angular speed values, in °/sec, for the x, y and z axis
+     * into the given array, without allocating a new one.
+     *
+     * @param result an array of at least three elements.
+     * @return the given array.
+     */
+    public double[] getGyroAngularSpeeds(double[] result) {
+        result[0] = gyroAngularSpeedX;
+        result[1] = gyroAngularSpeedY;
+        result[2] = gyroAngularSpeedZ;
+        return result;
+    }
+
     /**
      * Get the last angles values, in °, retrieved from the gyroscope,
      * for the x, y and z axis.
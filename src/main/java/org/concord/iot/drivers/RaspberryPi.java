@@ -0,0 +1,37 @@
+package org.concord.iot.drivers;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CFactory;
+import com.pi4j.io.spi.SpiChannel;
+import com.pi4j.io.spi.SpiDevice;
+import com.pi4j.io.spi.SpiFactory;
+import com.pi4j.io.spi.SpiMode;
+
+import java.io.IOException;
+
+/**
+ * The Raspberry Pi this program runs on, whose buses and pins are reached through the Pi4J factories.
+ *
+ * @author Charles Xie
+ */
+
+public class RaspberryPi extends Hardware {
+
+    @Override
+    public I2CBus openI2CBus(int busNumber) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        return I2CFactory.getInstance(busNumber);
+    }
+
+    @Override
+    public SpiDevice openSpiDevice(SpiChannel channel, int speed, SpiMode mode) throws IOException {
+        return SpiFactory.getInstance(channel, speed, mode);
+    }
+
+    @Override
+    public GpioController getGpioController() {
+        return GpioFactory.getInstance();
+    }
+
+}
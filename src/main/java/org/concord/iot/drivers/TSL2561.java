@@ -8,36 +8,154 @@ import java.io.IOException;
 
 /**
  * Adopted from https://github.com/ControlEverythingCommunity/TSL2561/blob/master/Java/TSL2561.java
+ * <p>
+ * The sensor is powered on once and then integrates on its own, one conversion after another, so a read only picks up the last
+ * completed conversion and never waits for one. The gain and the integration time are written only when they change, as writing
+ * the timing register starts the integration over. The values are scaled to what the sensor would count at a gain of 1 and an
+ * integration time of 402 ms, so they do not jump when the gain or the integration time changes.
  */
 
 public class TSL2561 {
 
+    private final static int COMMAND = 0x80;
+    private final static int CONTROL = 0x00;
+    private final static int TIMING = 0x01;
+    private final static int DATA0LOW = 0x0C;
+    private final static int POWER_ON = 0x03;
+    private final static int HIGH_GAIN = 0x10;
+
+    public enum IntegrationTime {
+
+        MS_13(0x00, 13.7, 322.0 / 11.0, 5047), MS_101(0x01, 101, 322.0 / 81.0, 37177), MS_402(0x02, 402, 1, 65535);
+
+        private final int bits;
+        private final double millis;
+        private final double scale; // to the counts of an integration time of 402 ms
+        private final int saturation; // the maximum count of a channel
+
+        IntegrationTime(int bits, double millis, double scale, int saturation) {
+            this.bits = bits;
+            this.millis = millis;
+            this.scale = scale;
+            this.saturation = saturation;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+
+    }
+
     private double fullLux;
     private double infraredLux;
+    private final byte[] data = new byte[4];
+    private I2CBusManager bus;
     private I2CDevice device;
 
+    private IntegrationTime integrationTime = IntegrationTime.MS_402;
+    private boolean highGain;
+    private boolean autoGain;
+    private long integrationStart; // nanoseconds, when the current settings took effect
+    private long lastConversion; // nanoseconds, when the last conversion was read
+
     public TSL2561() throws IOException, I2CFactory.UnsupportedBusNumberException {
-        I2CBus Bus = I2CFactory.getInstance(I2CBus.BUS_1);
-        device = Bus.getDevice(0x39); // TSL2561 I2C address is 0x39(57)
+        this(Hardware.getDefault());
+    }
+
+    public TSL2561(Hardware hardware) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1);
+        device = bus.getDevice(0x39); // TSL2561 I2C address is 0x39(57)
+        bus.transaction(device, () -> {
+            device.write(CONTROL | COMMAND, (byte) POWER_ON);
+            writeTiming();
+            return null;
+        });
+    }
+
+    private void writeTiming() throws IOException {
+        device.write(TIMING | COMMAND, (byte) (integrationTime.bits | (highGain ? HIGH_GAIN : 0)));
+        integrationStart = System.nanoTime();
+    }
+
+    public synchronized void setIntegrationTime(IntegrationTime integrationTime) throws IOException {
+        if (this.integrationTime != integrationTime) {
+            this.integrationTime = integrationTime;
+            bus.transaction(device, () -> {
+                writeTiming();
+                return null;
+            });
+        }
+    }
+
+    public synchronized IntegrationTime getIntegrationTime() {
+        return integrationTime;
+    }
+
+    /**
+     * Sets the gain to 16 if true or 1 if false.
+     */
+    public synchronized void setHighGain(boolean highGain) throws IOException {
+        if (this.highGain != highGain) {
+            this.highGain = highGain;
+            bus.transaction(device, () -> {
+                writeTiming();
+                return null;
+            });
+        }
+    }
+
+    public synchronized boolean isHighGain() {
+        return highGain;
+    }
+
+    /**
+     * If true, the gain is switched to 1 when a channel gets close to saturation, and to 16 when the light is dim enough for it.
+     */
+    public synchronized void setAutoGain(boolean autoGain) {
+        this.autoGain = autoGain;
+    }
+
+    public synchronized boolean isAutoGain() {
+        return autoGain;
     }
 
-    public void read() throws IOException {
+    /**
+     * Picks up the last completed conversion, or does nothing if no conversion has completed since the last read.
+     *
+     * @return true if a new conversion has been read
+     */
+    public synchronized boolean read() throws IOException {
 
-        // Select control register
-        // Power ON mode
-        device.write(0x00 | 0x80, (byte) 0x03);
-        // Select timing register
-        // Nominal integration time = 402ms
-        device.write(0x01 | 0x80, (byte) 0x02);
+        long integrationNanos = (long) (integrationTime.millis * 1000000);
+        long now = System.nanoTime();
+        if (now - integrationStart < integrationNanos || now - lastConversion < integrationNanos) {
+            return false;
+        }
 
         // Read 4 bytes of data
         // ch0 lsb, ch0 msb, ch1 lsb, ch1 msb
-        byte[] data = new byte[4];
-        device.read(0x0C | 0x80, data, 0, 4);
+        bus.transaction(device, () -> device.read(DATA0LOW | COMMAND, data, 0, 4));
+        lastConversion = now;
+
+        int ch0 = (data[1] & 0xFF) * 256 + (data[0] & 0xFF);
+        int ch1 = (data[3] & 0xFF) * 256 + (data[2] & 0xFF);
+        boolean gain = highGain; // of this conversion
+        double scale = integrationTime.scale / (gain ? 16 : 1);
+
+        if (autoGain) {
+            if (gain && Math.max(ch0, ch1) >= integrationTime.saturation * 9 / 10) {
+                setHighGain(false);
+                return false; // the saturated counts are of no use
+            }
+            if (!gain && Math.max(ch0, ch1) < integrationTime.saturation / 32) { // dim enough for 16 times more counts
+                setHighGain(true);
+            }
+        }
 
         // Convert the data
-        fullLux = ((data[1] & 0xFF) * 256 + (data[0] & 0xFF));
-        infraredLux = ((data[3] & 0xFF) * 256 + (data[2] & 0xFF));
+        fullLux = ch0 * scale;
+        infraredLux = ch1 * scale;
+        return true;
 
     }
 
@@ -59,4 +177,4 @@ public class TSL2561 {
         return infraredLux;
     }
 
-}
\ No newline at end of file
+}
@@ -14,29 +14,35 @@ public class VCNL4010 {
 
     private int luminance;
     private int proximity;
+    private final byte[] data = new byte[4];
+    private I2CBusManager bus;
     private I2CDevice device;
 
     public VCNL4010() throws IOException, I2CFactory.UnsupportedBusNumberException {
-        I2CBus bus = I2CFactory.getInstance(I2CBus.BUS_1);
+        this(Hardware.getDefault());
+    }
+
+    public VCNL4010(Hardware hardware) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1);
         device = bus.getDevice(0x13); // VCNL4010 I2C address is 0x13(19)
     }
 
     public void read() throws IOException {
 
-        // Select command register
-        // Enables ALS and proximity measurement, LP oscillator
-        device.write(0x80, (byte) 0xFF);
-        // Select proximity rate register
-        // 1.95 proximity measurement / s
-        device.write(0x82, (byte) 0x00);
-        // Select ALS register
-        // Continuos conversion mode, ALS rate 2 samples / s
-        device.write(0x84, (byte) 0x9D);
-
-        // Read 4 bytes of data
-        // luminance msb, luminance lsb, proximity msb, proximity lsb
-        byte[] data = new byte[4];
-        device.read(0x85, data, 0, 4);
+        bus.transaction(device, () -> {
+            // Select command register
+            // Enables ALS and proximity measurement, LP oscillator
+            device.write(0x80, (byte) 0xFF);
+            // Select proximity rate register
+            // 1.95 proximity measurement / s
+            device.write(0x82, (byte) 0x00);
+            // Select ALS register
+            // Continuos conversion mode, ALS rate 2 samples / s
+            device.write(0x84, (byte) 0x9D);
+            // Read 4 bytes of data
+            // luminance msb, luminance lsb, proximity msb, proximity lsb
+            return device.read(0x85, data, 0, 4);
+        });
 
         // Convert the data
         luminance = ((data[0] & 0xFF) * 256) + (data[1] & 0xFF);
@@ -1,5 +1,10 @@
 package org.concord.iot.drivers;
 
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
 import com.pi4j.io.i2c.I2CBus;
 import com.pi4j.io.i2c.I2CDevice;
 import com.pi4j.io.i2c.I2CFactory;
@@ -103,10 +108,17 @@ public class VL53L0X {
         return (int)(((timeoutPeriodMclks * macroPeriodNs) + (int)(macroPeriodNs / 2f)) / 1_000f);
     }
 
+    private static int timeoutMicroSecondsToMclks(int timeoutPeriodMicrosec, int vcselPeriodPclks) {
+        int macroPeriodNs = (int)(((2_304 * (vcselPeriodPclks) * 1_655) + 500) / 1_000f);
+        return ((timeoutPeriodMicrosec * 1_000) + (int)(macroPeriodNs / 2f)) / macroPeriodNs;
+    }
+
     private static boolean verbose = "true".equals(System.getProperty("vl53l0x.debug", "false"));
 
-    private I2CBus bus;
+    private final Hardware hardware;
+    private I2CBusManager bus;
     private I2CDevice vl53l0x;
+    private GpioPinDigitalInput interruptPin;
 
     private int ioTimeout = 0;
     private int stopVariable = 0;
@@ -115,6 +127,10 @@ public class VL53L0X {
 
     private int measurementTimingBudgetMicrosec = 0, measurementTimingBudget = 0;
 
+    private volatile boolean continuous;
+    private volatile int latestRange = -1; // mm
+    private volatile long latestRangeTime; // milliseconds
+
     public VL53L0X() throws IOException, I2CFactory.UnsupportedBusNumberException {
         this(VL53L0X_I2CADDR);
     }
@@ -124,10 +140,19 @@ public class VL53L0X {
     }
 
     public VL53L0X(int address, int timeout) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        this(Hardware.getDefault(), address, timeout);
+    }
+
+    public VL53L0X(Hardware hardware) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        this(hardware, VL53L0X_I2CADDR, 0);
+    }
+
+    public VL53L0X(Hardware hardware, int address, int timeout) throws IOException, I2CFactory.UnsupportedBusNumberException {
+        this.hardware = hardware;
         this.ioTimeout = timeout;
 
         // Get i2c bus
-        bus = I2CFactory.getInstance(I2CBus.BUS_1); // Depends on the RasPi version
+        bus = I2CBusManager.getInstance(hardware, I2CBus.BUS_1); // Depends on the RasPi version
         if (verbose) {
             System.out.println("Connected to bus. OK.");
         }
@@ -497,7 +522,7 @@ public class VL53L0X {
         this.writeU16(FINAL_RANGE_CONFIG_MIN_COUNT_RATE_RTN_LIMIT, value);
     }
 
-    /* The measurement timing budget in microseconds. */
+    /* The measurement timing budget in microseconds, which is also the time between measurements in back-to-back mode. */
     public int getMeasurementTimingBudget() throws Exception {
         int budget_us = 1_910 + 960;  // Start overhead +end overhead.
         boolean tcc, dss, msrc, pre_range, final_range;
@@ -549,7 +574,7 @@ public class VL53L0X {
             throw new RuntimeException("Requested timeout too big.");
         }
         int finalRangeTimeoutMicrosec = budgetMicrosec - usedBudgetMicrosec;
-        int finalRangeTimeoutMclks = timeoutMclksToMicroSeconds(finalRangeTimeoutMicrosec, sequenceStepTimeouts.finalRangeVcselPeriodPclks);
+        int finalRangeTimeoutMclks = timeoutMicroSecondsToMclks(finalRangeTimeoutMicrosec, sequenceStepTimeouts.finalRangeVcselPeriodPclks);
         if (sequenceStepEnables.preRange) {
             finalRangeTimeoutMclks += sequenceStepTimeouts.preRangeMclks;
         }
@@ -557,15 +582,134 @@ public class VL53L0X {
         this.measurementTimingBudgetMicrosec = budgetMicrosec;
     }
 
+    /**
+     * Starts continuous ranging, which runs on the sensor without any help from the host: back-to-back measurements, each taking the
+     * measurement timing budget, if the period is zero, or one measurement every period otherwise. The results are then picked up
+     * by {@link #poll()}, or as soon as they are ready if an interrupt pin is set, and {@link #latestRange()} returns the latest
+     * one without touching the bus.
+     *
+     * @param periodMillis the time between measurements in milliseconds, or zero for back-to-back measurements
+     */
+    public void startContinuous(int periodMillis) throws IOException {
+        bus.transaction(vl53l0x, () -> {
+            this.vl53l0x.write((byte)0x80, (byte)0x01);
+            this.vl53l0x.write((byte)0xFF, (byte)0x01);
+            this.vl53l0x.write((byte)0x00, (byte)0x00);
+            this.vl53l0x.write((byte)0x91, (byte)this.stopVariable);
+            this.vl53l0x.write((byte)0x00, (byte)0x01);
+            this.vl53l0x.write((byte)0xFF, (byte)0x00);
+            this.vl53l0x.write((byte)0x80, (byte)0x00);
+            if (periodMillis > 0) {
+                int period = periodMillis;
+                int oscCalibrateValue = this.readU16BE(OSC_CALIBRATE_VAL);
+                if (oscCalibrateValue != 0) {
+                    period *= oscCalibrateValue;
+                }
+                this.vl53l0x.write(SYSTEM_INTERMEASUREMENT_PERIOD, new byte[] { (byte)(period >> 24), (byte)(period >> 16), (byte)(period >> 8), (byte)period });
+                this.vl53l0x.write((byte)SYSRANGE_START, (byte)0x04); // timed mode
+            } else {
+                this.vl53l0x.write((byte)SYSRANGE_START, (byte)0x02); // back-to-back mode
+            }
+            return null;
+        });
+        continuous = true;
+    }
+
+    public void stopContinuous() throws IOException {
+        continuous = false;
+        bus.transaction(vl53l0x, () -> {
+            this.vl53l0x.write((byte)SYSRANGE_START, (byte)0x01);
+            this.vl53l0x.write((byte)0xFF, (byte)0x01);
+            this.vl53l0x.write((byte)0x00, (byte)0x00);
+            this.vl53l0x.write((byte)0x91, (byte)0x00);
+            this.vl53l0x.write((byte)0x00, (byte)0x01);
+            this.vl53l0x.write((byte)0xFF, (byte)0x00);
+            return null;
+        });
+    }
+
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * Has the range read as soon as a measurement is ready, which the sensor signals by pulling its GPIO1 pin low, so that nothing
+     * needs to poll the sensor during continuous ranging.
+     *
+     * @param pin the pin of the Raspberry Pi that GPIO1 of the sensor is wired to
+     */
+    public void setInterruptPin(Pin pin) {
+        if (interruptPin != null) {
+            interruptPin.removeAllListeners();
+            hardware.getGpioController().unprovisionPin(interruptPin);
+            interruptPin = null;
+        }
+        if (pin != null) {
+            interruptPin = hardware.getGpioController().provisionDigitalInputPin(pin, PinPullResistance.PULL_UP);
+            interruptPin.addListener((GpioPinListenerDigital) event -> {
+                if (event.getState() == PinState.LOW && continuous) {
+                    try {
+                        poll();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks once whether a new measurement is ready and, if it is, reads the range and clears the interrupt for the next one.
+     * This never waits for the sensor, so it can be called from a sampling loop as often as needed.
+     *
+     * @return true if a new range has been read
+     */
+    public boolean poll() throws IOException {
+        Integer mm = bus.transaction(vl53l0x, () -> {
+            if ((this.readU8(RESULT_INTERRUPT_STATUS) & 0x07) == 0) {
+                return null;
+            }
+            int rangeMm = this.readU16BE(RESULT_RANGE_STATUS + 10);
+            this.vl53l0x.write((byte)SYSTEM_INTERRUPT_CLEAR, (byte)0x01);
+            return rangeMm;
+        });
+        if (mm == null) {
+            return false;
+        }
+        latestRangeTime = System.currentTimeMillis();
+        latestRange = mm;
+        return true;
+    }
+
+    /**
+     * @return the latest range in millimeters read in continuous mode, or -1 if none has been read yet
+     */
+    public int latestRange() {
+        return latestRange;
+    }
+
+    /**
+     * @return the time in milliseconds when the latest range was read
+     */
+    public long getLatestRangeTime() {
+        return latestRangeTime;
+    }
+
     /**
      * Perform a single reading of the range for an object in front of the sensor and return the distance in millimeters.
      *
      * Adapted from readRangeSingleMillimeters & readRangeContinuousMillimeters in pololu code at:
      * https://github.com/pololu/vl53l0x-arduino/blob/master/VL53L0X.cpp
      *
+     * In continuous mode, this picks up a new measurement if there is one and returns the latest range without waiting.
+     *
      * @return the distance in mm
      */
     public int range() throws IOException {
+        if (continuous) {
+            poll();
+            return latestRange;
+        }
         this.vl53l0x.write((byte)0x80, (byte)0x01);
         this.vl53l0x.write((byte)0xFF, (byte)0x01);
         this.vl53l0x.write((byte)0x00, (byte)0x00);
@@ -597,6 +741,7 @@ public class VL53L0X {
     public static void main(String... args) {
         try {
             VL53L0X vl53l0x = new VL53L0X();
+            vl53l0x.startContinuous(0);
             int previousDist = -1;
             while (true) {
                 int mm = vl53l0x.range();
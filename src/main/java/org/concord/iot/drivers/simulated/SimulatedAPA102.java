@@ -0,0 +1,63 @@
+package org.concord.iot.drivers.simulated;
+
+import java.util.Arrays;
+
+/**
+ * A simulated strip of APA102 RGB LEDs on an SPI channel. It decodes every frame shifted into it, a start frame of four zero bytes
+ * followed by a four-byte frame for each LED (a brightness byte, then blue, green, and red), and keeps the colors that the strip
+ * would show, so that the output of the driver can be checked.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedAPA102 extends SimulatedSpiDevice {
+
+    private int[] colors = new int[0]; // RGB, guarded by this
+    private int[] brightness = new int[0]; // from 0 to 31, guarded by this
+    private long frames; // guarded by this
+
+    public SimulatedAPA102(int speed) {
+        super(speed);
+    }
+
+    @Override
+    protected void exchange(byte[] data, int start, int length, byte[] result) {
+        int i = start;
+        int end = start + length;
+        while (i < end && data[i] == 0) { // the start frame
+            i++;
+        }
+        if (i - start < 4) {
+            return; // not a frame that the strip would latch
+        }
+        int n = 0;
+        for (int k = i; k + 3 < end && (data[k] & 0xE0) == 0xE0; k += 4) {
+            n++;
+        }
+        if (colors.length != n) {
+            colors = new int[n];
+            brightness = new int[n];
+        }
+        for (int j = 0; j < n; j++, i += 4) {
+            brightness[j] = data[i] & 0x1F;
+            colors[j] = (data[i + 3] & 0xFF) << 16 | (data[i + 2] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+        }
+        frames++;
+    }
+
+    /**
+     * @return the colors of the LEDs as RGB values
+     */
+    public synchronized int[] getColors() {
+        return Arrays.copyOf(colors, colors.length);
+    }
+
+    public synchronized int[] getBrightness() {
+        return Arrays.copyOf(brightness, brightness.length);
+    }
+
+    public synchronized long getFramesReceived() {
+        return frames;
+    }
+
+}
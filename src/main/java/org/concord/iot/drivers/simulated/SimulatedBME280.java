@@ -0,0 +1,163 @@
+package org.concord.iot.drivers.simulated;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A simulated Bosch BME280 temperature, pressure, and humidity sensor, or, without the humidity, a BMP280. It holds the example
+ * trimming parameters of the datasheet, and its data registers hold the raw readings that the compensation formulas of the
+ * datasheet turn into the simulated temperature, pressure, and humidity, so a driver goes through all of its arithmetic.
+ * <p>
+ * In normal mode, a read of the data registers gets a fresh measurement; in forced mode, a measurement is taken when the mode is
+ * set, after which the chip goes back to sleep; in sleep mode, the data registers keep the last measurement.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedBME280 extends SimulatedI2CDevice {
+
+    public final static int BME280_CHIP_ID = 0x60;
+    public final static int BMP280_CHIP_ID = 0x58;
+
+    private final static int CHIP_ID = 0xD0;
+    private final static int RESET = 0xE0;
+    private final static int CTRL_MEAS = 0xF4;
+    private final static int DATA_START = 0xF7;
+    private final static int DATA_END = 0xFE;
+
+    // the example trimming parameters of section 3.11.3 of the BMP280 datasheet, and typical ones for humidity
+    private final static int T1 = 27504, T2 = 26435, T3 = -1000;
+    private final static int P1 = 36477, P2 = -10685, P3 = 3024, P4 = 2855, P5 = 140, P6 = -7, P7 = 15500, P8 = -14600, P9 = 6000;
+    private final static int H1 = 75, H2 = 362, H3 = 0, H4 = 313, H5 = 50, H6 = 30;
+
+    private final boolean humidity;
+
+    /**
+     * @return a simulated BMP280, which has no humidity sensor
+     */
+    public static SimulatedBME280 createBMP280(int address) {
+        return new SimulatedBME280(address, false);
+    }
+
+    public SimulatedBME280(int address) {
+        this(address, true);
+    }
+
+    private SimulatedBME280(int address, boolean humidity) {
+        super(address);
+        this.humidity = humidity;
+        registers[CHIP_ID] = (byte) (humidity ? BME280_CHIP_ID : BMP280_CHIP_ID);
+        int[] trimming = {T1, T2, T3, P1, P2, P3, P4, P5, P6, P7, P8, P9};
+        for (int i = 0; i < trimming.length; i++) {
+            setShortLE(0x88 + 2 * i, trimming[i]);
+        }
+        if (humidity) {
+            registers[0xA1] = (byte) H1;
+            setShortLE(0xE1, H2);
+            registers[0xE3] = (byte) H3;
+            registers[0xE4] = (byte) (H4 >> 4);
+            registers[0xE5] = (byte) ((H4 & 0x0F) | ((H5 & 0x0F) << 4));
+            registers[0xE6] = (byte) (H5 >> 4);
+            registers[0xE7] = (byte) H6;
+        }
+        reset();
+    }
+
+    // the reset values of the data registers
+    private void reset() {
+        registers[CTRL_MEAS] = 0;
+        registers[0xF2] = 0;
+        registers[0xF5] = 0;
+        registers[0xF7] = (byte) 0x80;
+        registers[0xF8] = 0;
+        registers[0xF9] = 0;
+        registers[0xFA] = (byte) 0x80;
+        registers[0xFB] = 0;
+        registers[0xFC] = 0;
+        registers[0xFD] = (byte) 0x80;
+        registers[0xFE] = 0;
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == RESET) {
+            if (value == 0xB6) {
+                reset();
+            }
+            return;
+        }
+        if (register == CHIP_ID || (register >= DATA_START && register <= DATA_END)) { // read-only
+            return;
+        }
+        super.writeRegister(register, value);
+        if (register == CTRL_MEAS && (value & 0x03) != 0 && (value & 0x03) != 0x03) { // forced mode
+            measure();
+            registers[CTRL_MEAS] &= ~0x03;
+        }
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        if (register >= DATA_START && register <= DATA_END && (registers[CTRL_MEAS] & 0x03) == 0x03) { // normal mode
+            measure();
+        }
+    }
+
+    private void measure() {
+        double t = signal(22, 2, 600, 0.02); // Celsius
+        double p = signal(101325, 150, 1800, 2); // Pa
+        int adcT = invert(SimulatedBME280::temperature, t, true, 0xFFFFF);
+        double tFine = (long) (temperature(adcT) * 5120);
+        int adcP = invert(x -> pressure(x, tFine), p, false, 0xFFFFF);
+        registers[0xF7] = (byte) (adcP >> 12);
+        registers[0xF8] = (byte) (adcP >> 4);
+        registers[0xF9] = (byte) ((adcP & 0x0F) << 4);
+        registers[0xFA] = (byte) (adcT >> 12);
+        registers[0xFB] = (byte) (adcT >> 4);
+        registers[0xFC] = (byte) ((adcT & 0x0F) << 4);
+        if (humidity) {
+            double h = Math.min(100, Math.max(0, signal(45, 5, 900, 0.3))); // percent
+            setShortBE(0xFD, invert(x -> humidity(x, tFine), h, true, 0xFFFF));
+        }
+    }
+
+    // the smallest raw reading up to max that the given monotonic compensation function turns into at least (or at most) the value
+    private static int invert(DoubleUnaryOperator f, double value, boolean increasing, int max) {
+        int lo = 0, hi = max;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (increasing ? f.applyAsDouble(mid) < value : f.applyAsDouble(mid) > value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static double temperature(double adcT) {
+        double var1 = (adcT / 16384.0 - T1 / 1024.0) * T2;
+        double var2 = (adcT / 131072.0 - T1 / 8192.0) * (adcT / 131072.0 - T1 / 8192.0) * T3;
+        return (var1 + var2) / 5120.0;
+    }
+
+    private static double pressure(double adcP, double tFine) {
+        double var1 = tFine / 2.0 - 64000.0;
+        double var2 = var1 * var1 * P6 / 32768.0;
+        var2 = var2 + var1 * P5 * 2.0;
+        var2 = var2 / 4.0 + P4 * 65536.0;
+        var1 = (P3 * var1 * var1 / 524288.0 + P2 * var1) / 524288.0;
+        var1 = (1.0 + var1 / 32768.0) * P1;
+        double p = 1048576.0 - adcP;
+        p = (p - var2 / 4096.0) * 6250.0 / var1;
+        var1 = P9 * p * p / 2147483648.0;
+        var2 = p * P8 / 32768.0;
+        return p + (var1 + var2 + P7) / 16.0;
+    }
+
+    private static double humidity(double adcH, double tFine) {
+        double h = tFine - 76800.0;
+        h = (adcH - (H4 * 64.0 + H5 / 16384.0 * h)) * (H2 / 65536.0 * (1.0 + H6 / 67108864.0 * h * (1.0 + H3 / 67108864.0 * h)));
+        return h * (1.0 - H1 * h / 524288.0);
+    }
+
+}
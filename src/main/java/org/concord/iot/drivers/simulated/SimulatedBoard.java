@@ -0,0 +1,112 @@
+package org.concord.iot.drivers.simulated;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CFactory;
+import com.pi4j.io.spi.SpiChannel;
+import com.pi4j.io.spi.SpiDevice;
+import com.pi4j.io.spi.SpiMode;
+import org.concord.iot.drivers.Hardware;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A simulated Raspberry Pi with every device that the drivers support wired the way the drivers expect: on I2C bus 1, a BME280,
+ * a BMP280, a TSL2561, a VL53L0X, a VCNL4010, a LIS3DH, an MPU6050, and the HT16K33 of the alphanumeric display; on SPI channel 0,
+ * a strip of APA102 LEDs; and on the GPIO pins of the HC-SR04 driver, an ultrasonic sensor. Nothing here needs the native libraries
+ * of Pi4J, so a simulated board runs on any machine, and each board has its own buses, so many of them can run in one process.
+ * <p>
+ * The devices can be replaced or inspected through the buses and channels of the board, and the timing of the I2C bus can be
+ * changed, for instance to zero to measure the overhead of the software alone.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedBoard extends Hardware {
+
+    private final Map<Integer, SimulatedI2CBus> i2cBuses = new ConcurrentHashMap<>();
+    private final Map<SpiChannel, SimulatedSpiDevice> spiDevices = new ConcurrentHashMap<>();
+    private final SimulatedGpioProvider gpioProvider = new SimulatedGpioProvider();
+    private GpioController gpioController;
+
+    public SimulatedBoard() {
+        this(new Random().nextLong());
+    }
+
+    /**
+     * @param seed the seed of the noise and the phases of the signals of the devices, which makes a run reproducible
+     */
+    public SimulatedBoard(long seed) {
+        SimulatedI2CBus bus = new SimulatedI2CBus(I2CBus.BUS_1);
+        SimulatedI2CDevice[] devices = {
+                new SimulatedBME280(0x76),
+                SimulatedBME280.createBMP280(0x77),
+                new SimulatedTSL2561(0x39),
+                new SimulatedVL53L0X(0x29),
+                new SimulatedVCNL4010(0x13),
+                new SimulatedLIS3DH(0x18),
+                new SimulatedMPU6050(0x68),
+                new SimulatedHT16K33(0x70)
+        };
+        SplittableRandom seeds = new SplittableRandom(seed); // mixes the bits, as the first outputs of Random for nearby seeds are nearly the same
+        for (SimulatedI2CDevice d : devices) {
+            d.setSeed(seeds.nextLong());
+            bus.attach(d);
+        }
+        i2cBuses.put(bus.getBusNumber(), bus);
+        spiDevices.put(SpiChannel.CS0, new SimulatedAPA102(SpiDevice.DEFAULT_SPI_SPEED));
+        Random random = new Random(seeds.nextLong());
+        double phase = random.nextDouble() * 2 * Math.PI;
+        gpioProvider.connectUltrasonicSensor(RaspiPin.GPIO_05, RaspiPin.GPIO_04, () -> 500 + 300 * Math.sin(System.nanoTime() * 1.0e-9 * 2 * Math.PI / 15 + phase) + random.nextGaussian() * 2);
+    }
+
+    /**
+     * @return the simulated bus with the given number, through which its devices can be replaced or inspected
+     */
+    public SimulatedI2CBus getI2CBus(int busNumber) {
+        return i2cBuses.get(busNumber);
+    }
+
+    public SimulatedSpiDevice getSpiDevice(SpiChannel channel) {
+        return spiDevices.get(channel);
+    }
+
+    /**
+     * Puts the given device on an SPI channel, for instance a BMP280 to be used over SPI.
+     */
+    public void setSpiDevice(SpiChannel channel, SimulatedSpiDevice device) {
+        spiDevices.put(channel, device);
+    }
+
+    public SimulatedGpioProvider getGpioProvider() {
+        return gpioProvider;
+    }
+
+    @Override
+    public I2CBus openI2CBus(int busNumber) throws I2CFactory.UnsupportedBusNumberException {
+        SimulatedI2CBus bus = i2cBuses.get(busNumber);
+        if (bus == null) {
+            throw new I2CFactory.UnsupportedBusNumberException();
+        }
+        return bus;
+    }
+
+    @Override
+    public SpiDevice openSpiDevice(SpiChannel channel, int speed, SpiMode mode) {
+        return spiDevices.computeIfAbsent(channel, c -> new SimulatedSpiDevice(speed));
+    }
+
+    @Override
+    public synchronized GpioController getGpioController() {
+        if (gpioController == null) {
+            gpioController = new GpioControllerImpl(gpioProvider);
+        }
+        return gpioController;
+    }
+
+}
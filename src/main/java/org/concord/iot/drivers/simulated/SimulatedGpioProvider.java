@@ -0,0 +1,132 @@
+package org.concord.iot.drivers.simulated;
+
+import com.pi4j.io.gpio.GpioProviderBase;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Simulated GPIO pins of a Raspberry Pi, which take the pins of {@link RaspiPin} as the real provider does. Output pins keep their
+ * state, and input pins can be set from outside, as a button or a motion sensor would. An HC-SR04 ultrasonic sensor can be wired
+ * to a pair of pins: at the end of a pulse on its trigger pin, its echo pin goes high after the ultrasonic burst has been sent and
+ * stays high for the round trip of the sound to the target, or for the timeout of the sensor if the target is out of range. The
+ * state of the echo pin follows the clock, so it can be polled, and listeners are notified of its edges as they happen.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedGpioProvider extends GpioProviderBase {
+
+    private final static double SOUND_SPEED = 343.0; // m/s
+    private final static long BURST_TIME = 450000; // nanoseconds from the end of the trigger to the rising edge of the echo
+    private final static long ECHO_TIMEOUT = 38000000; // nanoseconds of echo when nothing is in range
+    private final static double MAX_RANGE = 4000; // mm
+
+    private static ScheduledExecutorService scheduler; // shared by all the simulated boards
+
+    private final Map<Pin, UltrasonicSensor> sensorsByTrigger = new ConcurrentHashMap<>();
+    private final Map<Pin, UltrasonicSensor> sensorsByEcho = new ConcurrentHashMap<>();
+
+    private class UltrasonicSensor {
+
+        final Pin trigger;
+        final Pin echo;
+        final DoubleSupplier distance; // mm
+        volatile long echoStart = Long.MAX_VALUE; // nanoseconds
+        volatile long echoEnd = Long.MAX_VALUE; // nanoseconds
+
+        UltrasonicSensor(Pin trigger, Pin echo, DoubleSupplier distance) {
+            this.trigger = trigger;
+            this.echo = echo;
+            this.distance = distance;
+        }
+
+        void trigger() {
+            double d = distance.getAsDouble();
+            long width = d > 0 && d <= MAX_RANGE ? (long) (2 * d * 1.0e6 / SOUND_SPEED) : ECHO_TIMEOUT;
+            long start = System.nanoTime() + BURST_TIME;
+            echoEnd = start + width; // set before the start, so that the pin never looks high with the end of the last echo
+            echoStart = start;
+            ScheduledExecutorService s = getScheduler();
+            s.schedule(() -> dispatch(PinState.HIGH), BURST_TIME, TimeUnit.NANOSECONDS);
+            s.schedule(() -> dispatch(PinState.LOW), BURST_TIME + width, TimeUnit.NANOSECONDS);
+        }
+
+        PinState getState() {
+            long t = System.nanoTime();
+            return t >= echoStart && t < echoEnd ? PinState.HIGH : PinState.LOW;
+        }
+
+        private void dispatch(PinState state) {
+            getPinCache(echo).setState(state);
+            dispatchPinDigitalStateChangeEvent(echo, state);
+        }
+
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Simulated GPIO");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return scheduler;
+    }
+
+    @Override
+    public String getName() {
+        return RaspiPin.GPIO_00.getProvider();
+    }
+
+    /**
+     * Wires an HC-SR04 ultrasonic sensor to the given pins.
+     *
+     * @param distance the distance to the target in millimeters
+     */
+    public void connectUltrasonicSensor(Pin trigger, Pin echo, DoubleSupplier distance) {
+        UltrasonicSensor s = new UltrasonicSensor(trigger, echo, distance);
+        sensorsByTrigger.put(trigger, s);
+        sensorsByEcho.put(echo, s);
+    }
+
+    /**
+     * Sets the state of an input pin as the device connected to it would, notifying the listeners if it changes.
+     */
+    public void setInputState(Pin pin, PinState state) {
+        PinState old = getPinCache(pin).getState();
+        getPinCache(pin).setState(state);
+        if (old != state) {
+            dispatchPinDigitalStateChangeEvent(pin, state);
+        }
+    }
+
+    @Override
+    public void setState(Pin pin, PinState state) {
+        PinState old = getPinCache(pin).getState();
+        super.setState(pin, state);
+        UltrasonicSensor s = sensorsByTrigger.get(pin);
+        if (s != null && old == PinState.HIGH && state == PinState.LOW) {
+            s.trigger();
+        }
+    }
+
+    @Override
+    public PinState getState(Pin pin) {
+        UltrasonicSensor s = sensorsByEcho.get(pin);
+        if (s != null) {
+            getMode(pin); // validates the pin
+            return s.getState();
+        }
+        return super.getState(pin);
+    }
+
+}
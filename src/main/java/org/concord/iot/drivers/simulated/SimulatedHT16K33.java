@@ -0,0 +1,73 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated Holtek HT16K33 LED controller, which drives the alphanumeric display. A byte whose upper nibble is zero is an address
+ * in the 16-byte display memory, and the data that follow it are stored from there; any other byte is a command that sets up the
+ * oscillator, the display and its blinking, or the brightness. The state can be inspected, for instance to check what the display shows.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedHT16K33 extends SimulatedI2CDevice {
+
+    private volatile boolean oscillatorOn;
+    private volatile boolean displayOn;
+    private volatile int blinkRate; // 0 for no blinking, then 2 Hz, 1 Hz, and 0.5 Hz
+    private volatile int brightness = 15; // duty cycle in sixteenths, less one
+
+    public SimulatedHT16K33(int address) {
+        super(address);
+    }
+
+    @Override
+    protected int select(int registerAddress) {
+        switch (registerAddress & 0xF0) {
+            case 0x00:
+                return registerAddress;
+            case 0x20: // system setup
+                oscillatorOn = (registerAddress & 0x01) != 0;
+                break;
+            case 0x80: // display setup
+                displayOn = (registerAddress & 0x01) != 0;
+                blinkRate = (registerAddress >> 1) & 0x03;
+                break;
+            case 0xE0: // dimming
+                brightness = registerAddress & 0x0F;
+                break;
+        }
+        return 0;
+    }
+
+    @Override
+    protected int next(int register) {
+        return (register + 1) & 0x0F;
+    }
+
+    public boolean isOscillatorOn() {
+        return oscillatorOn;
+    }
+
+    public boolean isDisplayOn() {
+        return displayOn;
+    }
+
+    public int getBlinkRate() {
+        return blinkRate;
+    }
+
+    public int getBrightness() {
+        return brightness;
+    }
+
+    /**
+     * @return the two bytes of segments of each of the eight rows of the display memory
+     */
+    public byte[] getDisplayMemory() {
+        byte[] memory = new byte[16];
+        synchronized (lock()) {
+            System.arraycopy(registers, 0, memory, 0, memory.length);
+        }
+        return memory;
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.concord.iot.drivers.simulated;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An I2C bus with simulated devices attached to it. Like a real bus, it carries one transaction at a time, and each transaction
+ * holds it for as long as it would take on the wire: a fixed overhead for the system call and the driver, plus nine clock cycles
+ * (eight bits and an acknowledgement) for every byte, including the address bytes. The default timing is that of the standard
+ * mode of 100 kHz that the Raspberry Pi uses. Waiting threads are parked rather than spun, so that many simulated boards can run
+ * in one process.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedI2CBus implements I2CBus {
+
+    private final int busNumber;
+    private final Map<Integer, SimulatedI2CDevice> devices = new ConcurrentHashMap<>();
+    private volatile int clockSpeed = 100000; // Hz, or zero for a bus that takes no time
+    private volatile long overhead = 50000; // nanoseconds per transaction
+    private long transactions; // guarded by this
+    private long bytes; // guarded by this
+    private long busyTime; // nanoseconds, guarded by this
+
+    public SimulatedI2CBus(int busNumber) {
+        this.busNumber = busNumber;
+    }
+
+    /**
+     * Connects a simulated device to this bus at its address.
+     */
+    public void attach(SimulatedI2CDevice device) {
+        if (devices.putIfAbsent(device.getAddress(), device) != null) {
+            throw new IllegalArgumentException(String.format("Address 0x%02X is already in use on I2C bus %d", device.getAddress(), busNumber));
+        }
+        device.setBus(this);
+    }
+
+    public void detach(int address) {
+        devices.remove(address);
+    }
+
+    /**
+     * Like a real bus, this returns a device whether or not anything is attached at the address; transactions with an absent device fail.
+     */
+    @Override
+    public I2CDevice getDevice(int address) throws IOException {
+        SimulatedI2CDevice d = devices.get(address);
+        if (d != null) {
+            return d;
+        }
+        SimulatedI2CDevice absent = new SimulatedI2CDevice(address) {
+            @Override
+            void transfer(int byteCount) throws IOException {
+                occupy(1); // the address byte, which nothing acknowledges
+                throw new IOException(String.format("No device at address 0x%02X on I2C bus %d", address, busNumber));
+            }
+        };
+        absent.setBus(this);
+        return absent;
+    }
+
+    public SimulatedI2CDevice getAttachedDevice(int address) {
+        return devices.get(address);
+    }
+
+    @Override
+    public int getBusNumber() {
+        return busNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * @param clockSpeed    the clock speed of the bus in Hz, or zero for transfers that take no time
+     * @param overhead      the fixed time of a transaction in nanoseconds
+     */
+    public void setTiming(int clockSpeed, long overhead) {
+        if (clockSpeed < 0 || overhead < 0) {
+            throw new IllegalArgumentException("Timing must not be negative: " + clockSpeed + ", " + overhead);
+        }
+        this.clockSpeed = clockSpeed;
+        this.overhead = overhead;
+    }
+
+    public int getClockSpeed() {
+        return clockSpeed;
+    }
+
+    public long getOverhead() {
+        return overhead;
+    }
+
+    /**
+     * Occupies the bus for a transaction of the given number of bytes. The caller must hold the lock of this bus.
+     */
+    void occupy(int byteCount) {
+        long time = overhead + (clockSpeed > 0 ? byteCount * 9 * 1000000000L / clockSpeed : 0);
+        transactions++;
+        bytes += byteCount;
+        busyTime += time;
+        if (time > 0) {
+            long end = System.nanoTime() + time;
+            for (long wait = time; wait > 0; wait = end - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Simulated I2C Bus %d: %d devices, %d transactions, %d bytes, busy for %.1f ms", busNumber, devices.size(), transactions, bytes, busyTime * 1.0e-6);
+    }
+
+}
@@ -0,0 +1,256 @@
+package org.concord.iot.drivers.simulated;
+
+import com.pi4j.io.i2c.I2CDevice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * A simulated I2C device with a map of 256 byte registers and a register pointer, which is what most I2C sensors look like from
+ * the bus: a write sets the pointer and stores any following bytes from there, and a read returns the bytes from the pointer on.
+ * The models of particular chips override the hooks that decide how the pointer moves and what the registers hold, and compute
+ * their measurements from slowly varying signals with a little noise.
+ * <p>
+ * Every call is a transaction that holds the bus for the time it would take on the wire, and the state of the device is only
+ * touched while the bus is held, so the models need no locking of their own.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedI2CDevice implements I2CDevice {
+
+    protected final byte[] registers = new byte[256];
+    protected final Random random = new Random();
+    private final long startTime = System.nanoTime();
+    private final int address;
+    private double phase; // of the signals of this device, so that the boards of a simulation do not all move in step
+    private SimulatedI2CBus bus;
+    private int pointer;
+
+    public SimulatedI2CDevice(int address) {
+        this.address = address;
+    }
+
+    void setBus(SimulatedI2CBus bus) {
+        this.bus = bus;
+    }
+
+    public SimulatedI2CBus getBus() {
+        return bus;
+    }
+
+    /**
+     * Makes the noise and the phase of the signals of this device reproducible.
+     */
+    public void setSeed(long seed) {
+        synchronized (lock()) {
+            random.setSeed(seed);
+            phase = random.nextDouble() * 2 * Math.PI;
+        }
+    }
+
+    // the state of the device is guarded by the bus it is attached to
+    protected final Object lock() {
+        return bus != null ? bus : this;
+    }
+
+    // occupies the bus for a transaction of the given number of bytes, including the address byte
+    void transfer(int byteCount) throws IOException {
+        if (bus != null) {
+            bus.occupy(byteCount);
+        }
+    }
+
+    /**
+     * @return the register that the given register address written on the bus selects
+     */
+    protected int select(int registerAddress) {
+        return registerAddress & 0xFF;
+    }
+
+    /**
+     * @return the register that a read or write moves on to after the given one
+     */
+    protected int next(int register) {
+        return (register + 1) & 0xFF;
+    }
+
+    /**
+     * Called at the start of every read, for instance to latch the latest measurement into the data registers.
+     */
+    protected void beginRead(int register) {
+    }
+
+    protected int readRegister(int register) {
+        return registers[register] & 0xFF;
+    }
+
+    protected void writeRegister(int register, int value) {
+        registers[register] = (byte) value;
+    }
+
+    /**
+     * @return the time in seconds since this device was created
+     */
+    protected double time() {
+        return (System.nanoTime() - startTime) * 1.0e-9;
+    }
+
+    /**
+     * @return a sinusoidal signal with some Gaussian noise on it
+     */
+    protected double signal(double mean, double amplitude, double period, double noise) {
+        return mean + amplitude * Math.sin(2 * Math.PI * time() / period + phase) + random.nextGaussian() * noise;
+    }
+
+    protected void setShortBE(int register, int value) {
+        registers[register] = (byte) (value >> 8);
+        registers[(register + 1) & 0xFF] = (byte) value;
+    }
+
+    protected void setShortLE(int register, int value) {
+        registers[register] = (byte) value;
+        registers[(register + 1) & 0xFF] = (byte) (value >> 8);
+    }
+
+    private void store(byte[] buffer, int offset, int size) {
+        for (int i = 0; i < size; i++) {
+            writeRegister(pointer, buffer[offset + i] & 0xFF);
+            pointer = next(pointer);
+        }
+    }
+
+    private void load(byte[] buffer, int offset, int size) {
+        beginRead(pointer);
+        for (int i = 0; i < size; i++) {
+            buffer[offset + i] = (byte) readRegister(pointer);
+            pointer = next(pointer);
+        }
+    }
+
+    @Override
+    public int getAddress() {
+        return address;
+    }
+
+    @Override
+    public void write(byte b) throws IOException {
+        synchronized (lock()) {
+            transfer(2);
+            pointer = select(b & 0xFF);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int size) throws IOException {
+        synchronized (lock()) {
+            transfer(1 + size);
+            if (size > 0) {
+                pointer = select(buffer[offset] & 0xFF);
+                store(buffer, offset + 1, size - 1);
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(int address, byte b) throws IOException {
+        synchronized (lock()) {
+            transfer(3);
+            pointer = select(address);
+            writeRegister(pointer, b & 0xFF);
+            pointer = next(pointer);
+        }
+    }
+
+    @Override
+    public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+        synchronized (lock()) {
+            transfer(2 + size);
+            pointer = select(address);
+            store(buffer, offset, size);
+        }
+    }
+
+    @Override
+    public void write(int address, byte[] buffer) throws IOException {
+        write(address, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        synchronized (lock()) {
+            transfer(2);
+            beginRead(pointer);
+            int value = readRegister(pointer);
+            pointer = next(pointer);
+            return value;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int size) throws IOException {
+        synchronized (lock()) {
+            transfer(1 + size);
+            load(buffer, offset, size);
+            return size;
+        }
+    }
+
+    @Override
+    public int read(int address) throws IOException {
+        synchronized (lock()) {
+            transfer(4);
+            pointer = select(address);
+            beginRead(pointer);
+            int value = readRegister(pointer);
+            pointer = next(pointer);
+            return value;
+        }
+    }
+
+    @Override
+    public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+        synchronized (lock()) {
+            transfer(3 + size);
+            pointer = select(address);
+            load(buffer, offset, size);
+            return size;
+        }
+    }
+
+    @Override
+    public int read(byte[] writeBuffer, int writeOffset, int writeSize, byte[] readBuffer, int readOffset, int readSize) throws IOException {
+        synchronized (lock()) {
+            transfer(2 + writeSize + readSize);
+            if (writeSize > 0) {
+                pointer = select(writeBuffer[writeOffset] & 0xFF);
+                store(writeBuffer, writeOffset + 1, writeSize - 1);
+            }
+            load(readBuffer, readOffset, readSize);
+            return readSize;
+        }
+    }
+
+    @Override
+    public void ioctl(long command, int value) throws IOException {
+        throw new IOException("A simulated device does not support ioctl");
+    }
+
+    @Override
+    public void ioctl(long command, ByteBuffer data, IntBuffer offsets) throws IOException {
+        throw new IOException("A simulated device does not support ioctl");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s at 0x%02X", getClass().getSimpleName(), address);
+    }
+
+}
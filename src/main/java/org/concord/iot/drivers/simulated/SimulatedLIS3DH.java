@@ -0,0 +1,67 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated ST LIS3DH three-axis accelerometer lying nearly flat and rocking gently, so that it measures mostly gravity. As on
+ * the chip, the register address only auto-increments in a multiple-byte transfer if its most significant bit is set, and the
+ * output registers hold left-justified two's complement values at the resolution of the selected mode and full scale.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedLIS3DH extends SimulatedI2CDevice {
+
+    private final static int WHO_AM_I = 0x0F;
+    private final static int CTRL_REG1 = 0x20;
+    private final static int CTRL_REG4 = 0x23;
+    private final static int STATUS_REG = 0x27;
+    private final static int OUT_X_L = 0x28;
+    private final static int OUT_Z_H = 0x2D;
+
+    private boolean autoIncrement;
+
+    public SimulatedLIS3DH(int address) {
+        super(address);
+        registers[WHO_AM_I] = 0x33;
+        registers[CTRL_REG1] = 0x07;
+    }
+
+    @Override
+    protected int select(int registerAddress) {
+        autoIncrement = (registerAddress & 0x80) != 0;
+        return registerAddress & 0x7F;
+    }
+
+    @Override
+    protected int next(int register) {
+        return autoIncrement ? (register + 1) & 0x7F : register;
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == WHO_AM_I || (register >= STATUS_REG && register <= OUT_Z_H)) { // read-only
+            return;
+        }
+        super.writeRegister(register, value);
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        int ctrl1 = registers[CTRL_REG1] & 0xFF;
+        if (register < STATUS_REG || register > OUT_Z_H || (ctrl1 & 0xF0) == 0) { // power-down mode
+            return;
+        }
+        int ctrl4 = registers[CTRL_REG4] & 0xFF;
+        double lsbPerG = 16384 >> ((ctrl4 >> 4) & 0x03); // left-justified 16-bit values at +-2, 4, 8, or 16 g
+        int bits = (ctrl1 & 0x08) != 0 ? 8 : (ctrl4 & 0x08) != 0 ? 12 : 10; // low-power, high-resolution, or normal mode
+        int mask = ~((1 << (16 - bits)) - 1);
+        double pitch = Math.toRadians(signal(0, 8, 30, 0));
+        double roll = Math.toRadians(signal(0, 5, 47, 0));
+        double[] g = {-Math.sin(pitch), Math.cos(pitch) * Math.sin(roll), Math.cos(pitch) * Math.cos(roll)};
+        for (int i = 0; i < 3; i++) {
+            int value = (int) Math.round((g[i] + random.nextGaussian() * 0.005) * lsbPerG);
+            setShortLE(OUT_X_L + 2 * i, Math.max(-32768, Math.min(32767, value)) & mask);
+        }
+        registers[STATUS_REG] = 0x0F; // new data on all axes
+    }
+
+}
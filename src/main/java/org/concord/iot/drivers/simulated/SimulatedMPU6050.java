@@ -0,0 +1,176 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated InvenSense MPU6050 accelerometer and gyroscope at rest on a table, with a small gyroscope offset and some noise. The
+ * measurement registers are refreshed whenever they are read, so a register-by-register read mixes samples while a burst read does
+ * not, as on the chip. The FIFO buffer is filled at the sample rate set by the divider and the low-pass filter whenever it is
+ * enabled, holds at most 1024 bytes, and flags an overflow in the interrupt status register when it wraps around.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedMPU6050 extends SimulatedI2CDevice {
+
+    private final static int SMPLRT_DIV = 0x19;
+    private final static int CONFIG = 0x1A;
+    private final static int GYRO_CONFIG = 0x1B;
+    private final static int ACCEL_CONFIG = 0x1C;
+    private final static int FIFO_EN = 0x23;
+    private final static int INT_STATUS = 0x3A;
+    private final static int ACCEL_XOUT_H = 0x3B;
+    private final static int GYRO_ZOUT_L = 0x48;
+    private final static int USER_CTRL = 0x6A;
+    private final static int PWR_MGMT_1 = 0x6B;
+    private final static int FIFO_COUNT_H = 0x72;
+    private final static int FIFO_R_W = 0x74;
+    private final static int WHO_AM_I = 0x75;
+
+    private final static int FIFO_SIZE = 1024;
+    private final static int FRAME_LENGTH = 12; // the accelerometer and gyroscope words, as the driver enables them
+    private final static int INT_FIFO_OFLOW = 0x10;
+
+    private final byte[] fifo = new byte[FIFO_SIZE];
+    private int fifoHead, fifoCount; // a ring buffer
+    private double fifoStart; // the time when the FIFO started filling up
+    private long framesWritten; // since the FIFO started filling up
+    private final byte[] sample = new byte[14];
+
+    public SimulatedMPU6050(int address) {
+        super(address);
+        registers[WHO_AM_I] = 0x68;
+        registers[PWR_MGMT_1] = 0x40; // asleep
+    }
+
+    @Override
+    protected int next(int register) {
+        return register == FIFO_R_W ? register : super.next(register);
+    }
+
+    private boolean isFifoRunning() {
+        return (registers[USER_CTRL] & 0x40) != 0 && (registers[FIFO_EN] & 0xFF) != 0 && (registers[PWR_MGMT_1] & 0x40) == 0;
+    }
+
+    private double getSampleRate() {
+        int dlpf = registers[CONFIG] & 0x07;
+        return (dlpf == 0 || dlpf == 7 ? 8000.0 : 1000.0) / (1 + (registers[SMPLRT_DIV] & 0xFF));
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == WHO_AM_I || register == INT_STATUS || (register >= ACCEL_XOUT_H && register <= GYRO_ZOUT_L) || register == FIFO_COUNT_H || register == FIFO_COUNT_H + 1) {
+            return; // read-only
+        }
+        if (register == FIFO_R_W) {
+            return; // writing into the FIFO buffer is not simulated
+        }
+        boolean wasRunning = isFifoRunning();
+        if (register == PWR_MGMT_1 && (value & 0x80) != 0) { // device reset, which clears itself
+            for (int i = SMPLRT_DIV; i < WHO_AM_I; i++) {
+                registers[i] = 0;
+            }
+            registers[PWR_MGMT_1] = 0x40;
+            clearFifo();
+            return;
+        }
+        if (register == USER_CTRL && (value & 0x04) != 0) { // FIFO reset, which clears itself
+            clearFifo();
+            value &= ~0x04;
+        }
+        if (register == SMPLRT_DIV || register == CONFIG) {
+            fill(); // at the old rate up to now
+        }
+        super.writeRegister(register, value);
+        if (!wasRunning && isFifoRunning() || register == SMPLRT_DIV || register == CONFIG) {
+            fifoStart = time();
+            framesWritten = 0;
+        }
+    }
+
+    private void clearFifo() {
+        fifoHead = 0;
+        fifoCount = 0;
+        fifoStart = time();
+        framesWritten = 0;
+    }
+
+    // adds the frames sampled since the last time to the FIFO buffer
+    private void fill() {
+        if (!isFifoRunning()) {
+            return;
+        }
+        long frames = (long) ((time() - fifoStart) * getSampleRate());
+        long n = frames - framesWritten;
+        if (n <= 0) {
+            return;
+        }
+        framesWritten = frames;
+        if (n * FRAME_LENGTH + fifoCount > FIFO_SIZE) {
+            registers[INT_STATUS] |= INT_FIFO_OFLOW;
+            n = Math.min(n, FIFO_SIZE / FRAME_LENGTH + 1); // only the latest frames survive the overflow
+        }
+        for (long i = 0; i < n; i++) {
+            measure();
+            for (int j = 0; j < 14; j++) {
+                if (j < 6 || j >= 8) { // no temperature in a frame
+                    int k = (fifoHead + fifoCount) % FIFO_SIZE;
+                    fifo[k] = sample[j];
+                    if (fifoCount < FIFO_SIZE) {
+                        fifoCount++;
+                    } else { // the oldest byte is overwritten
+                        fifoHead = (fifoHead + 1) % FIFO_SIZE;
+                    }
+                }
+            }
+        }
+    }
+
+    // takes a sample of the accelerometer, the temperature, and the gyroscope, in the order of their registers
+    private void measure() {
+        double accelScale = 16384 >> (registers[ACCEL_CONFIG] >> 3 & 0x03); // LSB/g
+        double gyroScale = 131.0 / (1 << (registers[GYRO_CONFIG] >> 3 & 0x03)); // LSB/(deg/s)
+        double[] values = {
+                random.nextGaussian() * 0.004 * accelScale,
+                random.nextGaussian() * 0.004 * accelScale,
+                (1 + random.nextGaussian() * 0.004) * accelScale,
+                (signal(24, 0.5, 600, 0.05) - 36.53) * 340,
+                (-1.2 + random.nextGaussian() * 0.05) * gyroScale,
+                (0.8 + random.nextGaussian() * 0.05) * gyroScale,
+                (0.3 + random.nextGaussian() * 0.05) * gyroScale
+        };
+        for (int i = 0; i < values.length; i++) {
+            int v = (int) Math.max(-32768, Math.min(32767, Math.round(values[i])));
+            sample[2 * i] = (byte) (v >> 8);
+            sample[2 * i + 1] = (byte) v;
+        }
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        if (register >= ACCEL_XOUT_H && register <= GYRO_ZOUT_L && (registers[PWR_MGMT_1] & 0x40) == 0) {
+            measure();
+            System.arraycopy(sample, 0, registers, ACCEL_XOUT_H, sample.length);
+        } else if (register == INT_STATUS || register == FIFO_COUNT_H || register == FIFO_COUNT_H + 1 || register == FIFO_R_W) {
+            fill();
+            setShortBE(FIFO_COUNT_H, fifoCount);
+        }
+    }
+
+    @Override
+    protected int readRegister(int register) {
+        if (register == FIFO_R_W) {
+            if (fifoCount == 0) {
+                return 0;
+            }
+            int value = fifo[fifoHead] & 0xFF;
+            fifoHead = (fifoHead + 1) % FIFO_SIZE;
+            fifoCount--;
+            return value;
+        }
+        int value = super.readRegister(register);
+        if (register == INT_STATUS) { // cleared by reading
+            registers[INT_STATUS] = 0;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.concord.iot.drivers.simulated;
+
+import com.pi4j.io.spi.SpiDevice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulated device on an SPI channel. Every write shifts the bytes out and, at the same time, shifts in as many bytes, which are
+ * returned; the transfer holds the channel for a fixed overhead plus eight clock cycles per byte at the speed of the channel.
+ * <p>
+ * By itself, the device reads back zeros. Given the register map of a simulated sensor, it answers the way the Bosch sensors do
+ * over SPI: the first byte of a transfer is a register address whose most significant bit is set for a read, after which the
+ * registers are read in turn, or, for a write, pairs of register addresses and values are stored.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedSpiDevice implements SpiDevice {
+
+    private final int speed; // Hz
+    private final SimulatedI2CDevice registerMap;
+    private volatile long overhead = 20000; // nanoseconds per transfer
+    private long transfers; // guarded by this
+    private long bytes; // guarded by this
+
+    public SimulatedSpiDevice(int speed) {
+        this(speed, null);
+    }
+
+    /**
+     * @param registerMap the simulated sensor whose registers are read and written through this channel
+     */
+    public SimulatedSpiDevice(int speed, SimulatedI2CDevice registerMap) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("SPI speed must be positive: " + speed);
+        }
+        this.speed = speed;
+        this.registerMap = registerMap;
+    }
+
+    public void setOverhead(long overhead) {
+        this.overhead = overhead;
+    }
+
+    /**
+     * Shifts the given bytes out and stores the bytes shifted in at the same time into the result. This is called while the channel is held.
+     */
+    protected void exchange(byte[] data, int start, int length, byte[] result) {
+        if (registerMap == null || length == 0) {
+            return;
+        }
+        synchronized (registerMap.lock()) {
+            if ((data[start] & 0x80) != 0) { // read
+                int register = data[start] & 0xFF;
+                registerMap.beginRead(register);
+                for (int i = 1; i < length; i++) {
+                    result[i] = (byte) registerMap.readRegister(register);
+                    register = registerMap.next(register);
+                }
+            } else {
+                for (int i = 0; i + 1 < length; i += 2) {
+                    registerMap.writeRegister((data[start + i] | 0x80) & 0xFF, data[start + i + 1] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized byte[] write(byte[] data, int start, int length) throws IOException {
+        length = Math.min(data.length - start, length);
+        long time = overhead + length * 8 * 1000000000L / speed;
+        long end = System.nanoTime() + time;
+        for (long wait = time; wait > 0; wait = end - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+        }
+        transfers++;
+        bytes += length;
+        byte[] result = new byte[length];
+        exchange(data, start, length, result);
+        return result;
+    }
+
+    @Override
+    public byte[] write(byte... data) throws IOException {
+        return write(data, 0, data.length);
+    }
+
+    @Override
+    public short[] write(short[] data, int start, int length) throws IOException {
+        length = Math.min(data.length - start, length);
+        byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) data[start + i];
+        }
+        byte[] result = write(buffer, 0, length);
+        short[] s = new short[length];
+        for (int i = 0; i < length; i++) {
+            s[i] = (short) (result[i] & 0xFF);
+        }
+        return s;
+    }
+
+    @Override
+    public short[] write(short... data) throws IOException {
+        return write(data, 0, data.length);
+    }
+
+    @Override
+    public String write(String data, Charset charset) throws IOException {
+        return new String(write(data.getBytes(charset)), charset);
+    }
+
+    @Override
+    public String write(String data, String charset) throws IOException {
+        return write(data, Charset.forName(charset));
+    }
+
+    @Override
+    public ByteBuffer write(ByteBuffer data) throws IOException {
+        byte[] buffer = new byte[data.remaining()];
+        data.get(buffer);
+        return ByteBuffer.wrap(write(buffer));
+    }
+
+    @Override
+    public byte[] write(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = input.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return write(out.toByteArray());
+    }
+
+    @Override
+    public int write(InputStream input, OutputStream output) throws IOException {
+        byte[] result = write(input);
+        output.write(result);
+        return result.length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s at %d Hz: %d transfers, %d bytes", getClass().getSimpleName(), speed, transfers, bytes);
+    }
+
+}
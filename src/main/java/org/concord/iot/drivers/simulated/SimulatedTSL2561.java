@@ -0,0 +1,84 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated TAOS TSL2561 light-to-digital converter. Its two channels (visible plus infrared, and infrared) integrate the light
+ * continuously while the chip is powered up, and their data registers are updated at the end of every integration cycle, so the
+ * first reading after powering up or changing the timing is only ready after one integration time. The counts scale with the
+ * integration time and the gain, and clip at the saturation levels of the datasheet. The light varies over three decades, from a
+ * dim room to daylight, so that a fixed gain is either too coarse or saturated for part of the time.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedTSL2561 extends SimulatedI2CDevice {
+
+    private final static int CONTROL = 0x00;
+    private final static int TIMING = 0x01;
+    private final static int ID = 0x0A;
+    private final static int DATA0LOW = 0x0C;
+    private final static int DATA1HIGH = 0x0F;
+
+    private final static double[] INTEGRATION_TIMES = {0.0137, 0.101, 0.402}; // seconds
+    private final static double[] SCALES = {11.0 / 322.0, 81.0 / 322.0, 1}; // of the counts relative to 402 ms
+    private final static int[] SATURATION = {5047, 37177, 65535};
+
+    private double cycleStart = -1; // the time when the current run of integration cycles started, or negative if powered down
+
+    public SimulatedTSL2561(int address) {
+        super(address);
+        registers[ID] = 0x50;
+        registers[TIMING] = 0x02;
+    }
+
+    // the command byte holds the register address in its low nibble
+    @Override
+    protected int select(int registerAddress) {
+        return registerAddress & 0x0F;
+    }
+
+    @Override
+    protected int next(int register) {
+        return (register + 1) & 0x0F;
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == ID || (register >= DATA0LOW && register <= DATA1HIGH)) { // read-only
+            return;
+        }
+        int old = registers[register] & 0xFF;
+        super.writeRegister(register, value);
+        if (register == CONTROL) {
+            boolean wasOn = (old & 0x03) == 0x03;
+            boolean on = (value & 0x03) == 0x03;
+            if (on && !wasOn) {
+                cycleStart = time();
+            } else if (!on) {
+                cycleStart = -1;
+            }
+        } else if (register == TIMING && value != old && cycleStart >= 0) { // integration starts over with the new timing
+            cycleStart = time();
+        }
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        if (register < DATA0LOW || register > DATA1HIGH || cycleStart < 0) {
+            return;
+        }
+        int integration = registers[TIMING] & 0x03;
+        if (integration == 0x03) { // manual integration is not simulated
+            return;
+        }
+        if (time() - cycleStart < INTEGRATION_TIMES[integration]) { // no cycle has completed yet
+            return;
+        }
+        double counts = Math.pow(10, signal(2.5, 1.5, 1200, 0.005)) * SCALES[integration];
+        if ((registers[TIMING] & 0x10) != 0) {
+            counts *= 16;
+        }
+        setShortLE(DATA0LOW, (int) Math.min(SATURATION[integration], Math.round(counts)));
+        setShortLE(DATA0LOW + 2, (int) Math.min(SATURATION[integration], Math.round(counts * 0.3)));
+    }
+
+}
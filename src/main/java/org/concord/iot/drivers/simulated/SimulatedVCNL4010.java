@@ -0,0 +1,50 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated Vishay VCNL4010 proximity and ambient light sensor. While a measurement is enabled in the command register, the
+ * result registers of that measurement hold a fresh reading whenever they are read: the ambient light drifts slowly, and the
+ * proximity count rises and falls as if something came near the sensor every few seconds.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedVCNL4010 extends SimulatedI2CDevice {
+
+    private final static int COMMAND = 0x80;
+    private final static int PRODUCT_ID = 0x81;
+    private final static int AMBIENT_RESULT = 0x85;
+    private final static int PROXIMITY_RESULT = 0x87;
+
+    public SimulatedVCNL4010(int address) {
+        super(address);
+        registers[PRODUCT_ID] = 0x21;
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == PRODUCT_ID || (register >= AMBIENT_RESULT && register <= PROXIMITY_RESULT + 1)) { // read-only
+            return;
+        }
+        if (register == COMMAND) { // the lock bit and the data ready bits cannot be written
+            value = (value & 0x1F) | 0x80;
+        }
+        super.writeRegister(register, value);
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        if (register < COMMAND || register > PROXIMITY_RESULT + 1) {
+            return;
+        }
+        int command = registers[COMMAND];
+        if ((command & 0x04) != 0) { // ambient light enabled
+            setShortBE(AMBIENT_RESULT, (int) Math.max(0, signal(800, 400, 900, 5)));
+            registers[COMMAND] |= 0x40;
+        }
+        if ((command & 0x02) != 0) { // proximity enabled
+            setShortBE(PROXIMITY_RESULT, (int) Math.max(0, signal(2500, 1500, 7, 10)));
+            registers[COMMAND] |= 0x20;
+        }
+    }
+
+}
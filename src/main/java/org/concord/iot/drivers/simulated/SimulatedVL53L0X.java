@@ -0,0 +1,110 @@
+package org.concord.iot.drivers.simulated;
+
+/**
+ * A simulated ST VL53L0X time-of-flight ranging sensor, which is just enough of the chip for the initialization sequence and the
+ * ranging of the driver: the identification registers, the handshakes that read the reference SPAD information, and the ranging
+ * itself. Writing 0x01 to SYSRANGE_START starts a single measurement, 0x02 starts back-to-back measurements, and 0x04 starts
+ * timed measurements at the intermeasurement period, until 0x00 is written or 0x01 stops the continuous ranging. A measurement
+ * takes the timing budget of the driver (about 33 ms), after which the interrupt status shows a new sample and the result
+ * registers hold the range to a target that moves back and forth; clearing the interrupt waits for the next one.
+ * The writes that select the private register pages (through register 0xFF) are taken into account, so that the writes to
+ * register 0x00 on the other pages do not start a measurement.
+ *
+ * @author Charles Xie
+ */
+
+public class SimulatedVL53L0X extends SimulatedI2CDevice {
+
+    private final static int SYSRANGE_START = 0x00;
+    private final static int SYSTEM_INTERMEASUREMENT_PERIOD = 0x04;
+    private final static int SYSTEM_INTERRUPT_CLEAR = 0x0B;
+    private final static int RESULT_INTERRUPT_STATUS = 0x13;
+    private final static int RESULT_RANGE_STATUS = 0x14;
+    private final static int GPIO_HV_MUX_ACTIVE_HIGH = 0x84;
+    private final static int OSC_CALIBRATE_VAL = 0xF8;
+    private final static int PAGE_SELECT = 0xFF;
+
+    private final static double MEASUREMENT_TIME = 0.033; // seconds
+
+    private double rangingStart = -1; // the time when the first pending measurement started, or negative if not ranging
+    private boolean continuous;
+    private double period = MEASUREMENT_TIME; // seconds between the starts of measurements
+    private long measurementsCleared; // the number of measurements since ranging started whose interrupts have been cleared
+
+    public SimulatedVL53L0X(int address) {
+        super(address);
+        registers[0xC0] = (byte) 0xEE;
+        registers[0xC1] = (byte) 0xAA;
+        registers[0xC2] = 0x10;
+        registers[0x91] = 0x3C; // the stop variable
+        registers[0x92] = (byte) 0x86; // aperture SPADs, 6 of them
+        registers[GPIO_HV_MUX_ACTIVE_HIGH] = 0x11;
+        setShortBE(OSC_CALIBRATE_VAL, 0x0400); // the driver multiplies the intermeasurement period in milliseconds by this
+    }
+
+    private int getPage() {
+        return registers[PAGE_SELECT] & 0xFF;
+    }
+
+    @Override
+    protected void writeRegister(int register, int value) {
+        if (register == 0x83 && value == 0x00) { // the chip answers this handshake at once
+            value = 0x10;
+        }
+        if (getPage() == 0) {
+            if (register == SYSRANGE_START) {
+                if ((value & 0x07) == 0 || (continuous && rangingStart >= 0 && (value & 0x07) == 0x01)) {
+                    rangingStart = -1;
+                    continuous = false;
+                } else {
+                    rangingStart = time();
+                    continuous = (value & 0x06) != 0;
+                    period = MEASUREMENT_TIME;
+                    if ((value & 0x04) != 0) {
+                        long p = (registers[SYSTEM_INTERMEASUREMENT_PERIOD] & 0xFFL) << 24 | (registers[SYSTEM_INTERMEASUREMENT_PERIOD + 1] & 0xFF) << 16
+                                | (registers[SYSTEM_INTERMEASUREMENT_PERIOD + 2] & 0xFF) << 8 | (registers[SYSTEM_INTERMEASUREMENT_PERIOD + 3] & 0xFF);
+                        int osc = (registers[OSC_CALIBRATE_VAL] & 0xFF) << 8 | (registers[OSC_CALIBRATE_VAL + 1] & 0xFF);
+                        period = Math.max(MEASUREMENT_TIME, p * 0.001 / (osc != 0 ? osc : 1));
+                    }
+                    measurementsCleared = 0;
+                }
+                registers[SYSRANGE_START] = (byte) (continuous ? value & 0x06 : 0); // the start bit clears itself as the measurement starts
+                return;
+            }
+            if (register == SYSTEM_INTERRUPT_CLEAR) {
+                if (rangingStart >= 0) {
+                    measurementsCleared = Math.max(measurementsCleared, getMeasurementsCompleted());
+                }
+                registers[RESULT_INTERRUPT_STATUS] = 0;
+                return;
+            }
+            if (register == RESULT_INTERRUPT_STATUS || (register >= RESULT_RANGE_STATUS && register < RESULT_RANGE_STATUS + 12)) {
+                return; // read-only
+            }
+        }
+        super.writeRegister(register, value);
+    }
+
+    private long getMeasurementsCompleted() {
+        double t = time() - rangingStart;
+        if (!continuous) {
+            return t >= MEASUREMENT_TIME ? 1 : 0;
+        }
+        return t < MEASUREMENT_TIME ? 0 : 1 + (long) ((t - MEASUREMENT_TIME) / period);
+    }
+
+    @Override
+    protected void beginRead(int register) {
+        if (getPage() != 0 || rangingStart < 0) {
+            return;
+        }
+        if (register == RESULT_INTERRUPT_STATUS || (register >= RESULT_RANGE_STATUS && register < RESULT_RANGE_STATUS + 12)) {
+            if (getMeasurementsCompleted() > measurementsCleared) {
+                registers[RESULT_INTERRUPT_STATUS] = 0x04; // new sample ready
+                registers[RESULT_RANGE_STATUS] = 0x0B << 3; // range valid
+                setShortBE(RESULT_RANGE_STATUS + 10, (int) Math.max(30, signal(600, 400, 20, 3)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.concord.iot;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Charles Xie
+ */
+
+public class CompressedChunkTest {
+
+    private final static long INTERVAL = 20000; // microseconds
+
+    // the deltas of deltas in microseconds at and around the boundaries of every bucket of the encoding
+    private final static long[] DELTAS_OF_DELTAS = {
+            0, 1, -1,
+            63, 64, -64, -65,
+            2047, 2048, -2048, -2049,
+            524287, 524288, -524288, -524289,
+            10000000, -INTERVAL * 3 / 2
+    };
+
+    private static void assertRoundTrip(long[] ticks, double[] values, CompressedChunk chunk) {
+        assertEquals(ticks.length, chunk.size());
+        CompressedChunk.Decoder decoder = chunk.decoder();
+        for (int i = 0; i < ticks.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals("time of sample " + i, ticks[i] / 1.0e6, decoder.getTime(), 1.0e-9);
+            assertEquals("value of sample " + i, values[i], decoder.getValue(), 0);
+        }
+        assertFalse(decoder.next());
+    }
+
+    private static CompressedChunk encode(long[] ticks, double[] values) {
+        CompressedChunk.Encoder encoder = new CompressedChunk.Encoder();
+        for (int i = 0; i < ticks.length; i++) {
+            encoder.add(ticks[i] / 1.0e6, values[i]);
+        }
+        return encoder.seal();
+    }
+
+    @Test
+    public void testDeltaOfDeltaBoundaries() {
+        for (long d : DELTAS_OF_DELTAS) {
+            long[] ticks = {1000000, 1000000 + INTERVAL, 1000000 + 2 * INTERVAL + d, 1000000 + 3 * INTERVAL + d};
+            double[] values = {1, 2, 3, 4};
+            CompressedChunk chunk = encode(ticks, values);
+            CompressedChunk.Decoder decoder = chunk.decoder();
+            for (int i = 0; i < ticks.length; i++) {
+                assertTrue(decoder.next());
+                assertEquals("delta of delta " + d + ", sample " + i, ticks[i] / 1.0e6, decoder.getTime(), 1.0e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testAllBoundariesInOneChunk() {
+        long[] ticks = new long[DELTAS_OF_DELTAS.length + 2];
+        double[] values = new double[ticks.length];
+        ticks[1] = INTERVAL;
+        long delta = INTERVAL;
+        for (int i = 0; i < DELTAS_OF_DELTAS.length; i++) {
+            delta += DELTAS_OF_DELTAS[i];
+            ticks[i + 2] = ticks[i + 1] + delta;
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 20 + i * 0.25;
+        }
+        assertRoundTrip(ticks, values, encode(ticks, values));
+    }
+
+    @Test
+    public void testJitteryNoisySeries() throws IOException {
+        Random random = new Random(1);
+        long[] ticks = new long[1000];
+        double[] values = new double[ticks.length];
+        for (int i = 1; i < ticks.length; i++) {
+            ticks[i] = ticks[i - 1] + INTERVAL + random.nextInt(4001) - 2000;
+            values[i] = random.nextInt(10) == 0 ? values[i - 1] : Math.sin(i * 0.01) * 100 + random.nextGaussian();
+        }
+        CompressedChunk chunk = encode(ticks, values);
+        assertRoundTrip(ticks, values, chunk);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        chunk.writeTo(new DataOutputStream(bytes));
+        CompressedChunk copy = CompressedChunk.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertRoundTrip(ticks, values, copy);
+        assertEquals(chunk.getMin(), copy.getMin(), 0);
+        assertEquals(chunk.getMax(), copy.getMax(), 0);
+        assertEquals(chunk.getSum(), copy.getSum(), 0);
+    }
+
+    @Test
+    public void testEncoderReuse() {
+        CompressedChunk.Encoder encoder = new CompressedChunk.Encoder();
+        for (int k = 0; k < 3; k++) {
+            long[] ticks = {0, INTERVAL + 64, 2 * INTERVAL + 64 + 2048, 3 * INTERVAL - 524288};
+            double[] values = {k, k + 0.5, k, -k};
+            for (int i = 0; i < ticks.length; i++) {
+                encoder.add(ticks[i] / 1.0e6, values[i]);
+            }
+            assertRoundTrip(ticks, values, encoder.seal());
+        }
+    }
+
+}